@@ -0,0 +1,31 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.bench;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * the bytes allocated on the heap, summed over the live threads of this jvm
+ * read from the hotspot ThreadMXBean and so only available on hotspot, otherwise -1
+ * the allocations of threads that exit in between are lost, so measure over threads that persist, eg workers
+ */
+public class Allocation {
+    public static long bytes() {
+        try {
+            com.sun.management.ThreadMXBean mx =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long sum = 0;
+            for (long bytes : mx.getThreadAllocatedBytes(mx.getAllThreadIds()))
+                if (bytes > 0) sum += bytes;
+            return sum;
+        }
+        catch (Throwable ex) { return -1; }
+    }
+
+    long start = bytes();
+
+    /** the bytes allocated per unit of work since construction */
+    public double per(long num) {
+        return (bytes()-start) / (double) num;
+    }
+}
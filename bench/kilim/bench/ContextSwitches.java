@@ -0,0 +1,34 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * the number of context switches, voluntary and involuntary, summed over the threads of this jvm
+ * read from /proc and so only available on linux, otherwise -1
+ */
+public class ContextSwitches {
+    public static long count() {
+        File [] tasks = new File("/proc/self/task").listFiles();
+        if (tasks==null) return -1;
+        long sum = 0;
+        for (File task : tasks) {
+            try {
+                for (String line : Files.readAllLines(new File(task,"status").toPath()))
+                    if (line.contains("ctxt_switches:"))
+                        sum += Long.parseLong(line.substring(line.indexOf(':')+1).trim());
+            }
+            catch (Exception ex) {} // the thread has exited
+        }
+        return sum;
+    }
+
+    long start = count();
+
+    /** the context switches per unit of work since construction */
+    public double per(long num) {
+        return (count()-start) / (double) num;
+    }
+}
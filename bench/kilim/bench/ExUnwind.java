@@ -0,0 +1,86 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.bench;
+
+import kilim.Fiber;
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * the throughput of exceptions thrown at the bottom of a chain of pausable frames and caught at the top,
+ * compared with the same chain of plain methods, ie the path through Fiber.upEx taken by code that uses
+ * exceptions for control flow
+ * usage: ExUnwind numThrows depth
+ */
+public class ExUnwind extends Task {
+    static boolean pausable = false;
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int d = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        for (int ii = 0; ii < 5; ii++) {
+            pausable = true;
+            testCont(new ExUnwind(n/10, d));
+            long tpausable = testCont(new ExUnwind(n, d));
+
+            pausable = false;
+            testCont(new ExUnwind(n/10, d));
+            long tbase = testCont(new ExUnwind(n, d));
+
+            System.out.format("n: %d, depth: %d, not pausable: %d ms, pausable: %d ms, %.0f throws/ms\n",
+                    n,d,tbase,tpausable,n / (double) Math.max(tpausable,1));
+        }
+    }
+
+    public static long testCont(ExUnwind ex) throws Exception {
+        long start = System.currentTimeMillis();
+        if (pausable) {
+            Fiber f = new Fiber(ex);
+            while (true) {
+                ex.execute(f.begin());
+                if (f.end()) break;
+            }
+        } else {
+            ex.noPauseRun();
+        }
+        return (System.currentTimeMillis() - start);
+    }
+
+    int n;
+    int depth;
+    long caught;
+    public ExUnwind(int an, int aDepth) {
+        n = an;
+        depth = aDepth;
+    }
+
+    public void execute() throws Pausable {
+        for (int i = 0; i < n; i++) {
+            try {
+                rec(depth);
+            }
+            catch (FastEx ex) { caught += i; }
+        }
+    }
+
+    private void rec(int d) throws Pausable, FastEx {
+        if (d == 0)
+            throw new FastEx();
+        rec(d-1);
+    }
+
+    public void noPauseRun() {
+        for (int i = 0; i < n; i++) {
+            try {
+                recNoPause(depth);
+            }
+            catch (FastEx ex) { caught += i; }
+        }
+    }
+
+    private void recNoPause(int d) throws FastEx {
+        if (d == 0)
+            throw new FastEx();
+        recNoPause(d-1);
+    }
+}
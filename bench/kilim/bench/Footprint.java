@@ -0,0 +1,71 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.bench;
+
+import kilim.Mailbox;
+import kilim.Pausable;
+import kilim.PauseReason;
+import kilim.Scheduler;
+import kilim.Task;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Usage: java kilim.bench.Footprint -n numTasks [-mailbox]
+// reports the heap used per task once the tasks are created, and once they've all paused, ie idle tasks
+// the tasks pause on a shared reason that never becomes invalid, or with -mailbox on a Mailbox.get each,
+// so the idle figure is the task, its fiber and the saved frame (plus the mailbox)
+// run with a fixed heap, eg -Xms2g -Xmx2g, to keep the heap from resizing between measurements
+public class Footprint {
+    static int num = 1000000;
+    static boolean mailbox;
+    static final AtomicInteger paused = new AtomicInteger();
+    static final PauseReason forever = task -> true;
+
+    public static void main(String[] args) throws Exception {
+        for (int ii=0; ii < args.length; ii++) {
+            switch (args[ii]) {
+                case "-n": num = Integer.parseInt(args[++ii]); break;
+                case "-mailbox": mailbox = true; break;
+            }
+        }
+        Scheduler sched = Scheduler.getDefaultScheduler();
+        Task [] tasks = new Task[num];
+        long base = used();
+        for (int ii=0; ii < num; ii++)
+            tasks[ii] = mailbox ? new MailboxTask() : new IdleTask();
+        long created = used();
+        for (Task task : tasks)
+            task.start();
+        while (paused.get() < num)
+            Thread.sleep(10);
+        sched.awaitIdle(10000);
+        long idle = used();
+        System.out.format("tasks: %d, %s, bytes/task created: %.1f, idle: %.1f\n",
+                num,mailbox ? "Mailbox.get":"Task.pause",(created-base)/(double) num,(idle-base)/(double) num);
+        System.exit(0);
+    }
+
+    static long used() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int ii=0; ii < 4; ii++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static class IdleTask extends Task {
+        public void execute() throws Pausable {
+            paused.incrementAndGet();
+            Task.pause(forever);
+        }
+    }
+
+    static class MailboxTask extends Task {
+        Mailbox<Integer> mb = new Mailbox<>();
+        public void execute() throws Pausable {
+            paused.incrementAndGet();
+            mb.get();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.bench;
+
+import java.lang.reflect.Method;
+import kilim.Invoker;
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * the cost of calling a pausable method directly, through a cached Invoker and through Task.invoke,
+ * ie the reflective path that looks up the woven overload and copies the arguments for each call
+ * usage: Invoke numCalls
+ */
+public class Invoke extends Task {
+    int n;
+    long sum;
+    Invoke(int n) { this.n = n; }
+
+    public long add(long val) throws Pausable {
+        return sum += val;
+    }
+
+    public void execute() throws Pausable, Exception {
+        Method method = Invoke.class.getMethod("add",long.class);
+        Invoker inv = Invoker.of(method);
+        for (int jj=0; jj < 5; jj++) {
+            long start = System.nanoTime();
+            for (long ii=0; ii < n; ii++)
+                add(ii);
+            long direct = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (long ii=0; ii < n; ii++)
+                inv.invoke(this,ii);
+            long invoker = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (long ii=0; ii < n; ii++)
+                Task.invoke(method,this,ii);
+            long reflect = System.nanoTime() - start;
+
+            System.out.format("direct: %6.2f, Invoker: %6.2f, Task.invoke: %6.2f nanos/call\n",
+                    1.0*direct/n,1.0*invoker/n,1.0*reflect/n);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        new Invoke(n).start().joinb();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,76 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.bench;
+
+import kilim.Pausable;
+import kilim.Task;
+
+/**
+ * a pipeline of pausable lambdas, compared with the same stages as direct pausable calls, as woven classes
+ * that implement the interface and as plain lambdas, printing the nanos per stage. every 1024th value the last stage yields, so the pipeline is
+ * paused and resumed through the lambdas
+ * usage: Lambdas numValues
+ */
+public class Lambdas extends Task {
+    interface Stage { long apply(long val) throws Pausable; }
+    interface Plain { long apply(long val); }
+
+    long num;
+    Lambdas(long num) { this.num = num; }
+
+    static long mix(long val) throws Pausable { return val*31 + 7; }
+    static long shift(long val) throws Pausable { return val ^ (val >>> 13); }
+    static long last(long val) throws Pausable {
+        if ((val & 1023)==0) Task.yield();
+        return val + 1;
+    }
+
+    static class Mix implements Stage { public long apply(long val) throws Pausable { return val*31 + 7; } }
+    static class Shift implements Stage { public long apply(long val) throws Pausable { return val ^ (val >>> 13); } }
+    static class Last implements Stage { public long apply(long val) throws Pausable { return last(val); } }
+
+    public void execute() throws Pausable {
+        Stage [] stages = { val -> val*31 + 7, val -> val ^ (val >>> 13), val -> last(val) };
+        Stage [] classes = { new Mix(), new Shift(), new Last() };
+        Plain [] plain = { val -> val*31 + 7, val -> val ^ (val >>> 13), val -> val + 1 };
+        for (int jj=0; jj < 5; jj++) {
+            long start = System.nanoTime(), val = 0;
+            for (long ii=0; ii < num; ii++)
+                val = last(shift(mix(val + ii)));
+            long direct = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (long ii=0; ii < num; ii++) {
+                val += ii;
+                for (int kk=0; kk < stages.length; kk++)
+                    val = stages[kk].apply(val);
+            }
+            long lambda = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (long ii=0; ii < num; ii++) {
+                val += ii;
+                for (int kk=0; kk < classes.length; kk++)
+                    val = classes[kk].apply(val);
+            }
+            long impl = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (long ii=0; ii < num; ii++) {
+                val += ii;
+                for (int kk=0; kk < plain.length; kk++)
+                    val = plain[kk].apply(val);
+            }
+            long base = System.nanoTime() - start;
+
+            System.out.format("direct: %6.2f, lambda: %6.2f, class: %6.2f, plain lambda: %6.2f nanos/stage %d\n",
+                    direct/(3.0*num),lambda/(3.0*num),impl/(3.0*num),base/(3.0*num),val & 1);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long num = args.length > 0 ? Long.parseLong(args[0]) : 10000000;
+        new Lambdas(num).start().joinb();
+        System.exit(0);
+    }
+}
@@ -16,8 +16,12 @@ import kilim.Task;
 // Or     
 //Usage: java kilim.bench.LotsOfTasks ntasks pause 
 //          creates ntasks, which in turn block indefinitely on their mailboxes.
+// -Dkilim.Scheduler.type=stealing runs the tasks on the work-stealing scheduler
+// -Dkilim.Scheduler.type=virtual runs each slice on a jdk virtual thread (java 21+)
+// -batch starts the tasks with a single Task.startAll instead of a start per task
 public class LotsOfTasks {
     static boolean block;
+    static boolean batch;
     static int nTasks = 100000;
     static int nRounds = 1000;
 
@@ -31,6 +35,8 @@ public class LotsOfTasks {
                     nTasks = Integer.parseInt(args[++i]);
                 } else if (arg.equalsIgnoreCase("-block")) {
                     block = true;
+                } else if (arg.equalsIgnoreCase("-batch")) {
+                    batch = true;
                 }
             }
         } catch (NumberFormatException e) {
@@ -46,14 +52,17 @@ public class LotsOfTasks {
             final Mailbox<ExitMsg> exitmb = new Mailbox<>();
 
             System.out.println("Creating " + nTasks + (block ? " blocking tasks" : " tasks"));
+            Task [] tasks = batch ? new Task[nTasks] : null;
             for (int i = 1; i <= nTasks; i++) {
                 Task t = new LTask();
                 t.informOnExit(exitmb);
-                t.start();
+                if (batch) tasks[i-1] = t;
+                else t.start();
                 if (i % 100000 == 0) {
                     System.out.println("  created " + i + " tasks .... (contd.)");
                 }
             }
+            if (batch) Task.startAll(tasks);
             profilerMark(); // dummy method to study memory consumption at this stage
             if (!block) {
                 System.out.println("Waiting for completion");
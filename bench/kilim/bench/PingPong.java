@@ -13,6 +13,9 @@ import kilim.Task;
  * This code is unnecessarily long for what it aims to do: bounce a message back
  * and forth between two tasks for a certain number of times. The reason for the
  * length is to compare against a similar example in the scala distribution.
+ *
+ * -Dkilim.Scheduler.runNext=true keeps the exchange on a single worker, see Scheduler.setRunNext
+ * the allocation per round trip is mostly the saved frames, see the weaver's -r option to reuse them
  */
 public class PingPong {
 
@@ -32,6 +35,7 @@ class Ping extends Task {
     int origcount;
     int count;
     long beginTime;
+    Allocation alloc;
     Ping(Mailbox<Msg> mb, Mailbox<Msg> pong) {
         mymb = mb;
         pongmb = pong;
@@ -44,6 +48,7 @@ class Ping extends Task {
                 case Init:
                     origcount = count = m.count;
                     beginTime = System.currentTimeMillis();
+                    alloc = new Allocation();
                     break;
                 case Start:
                 case PongMsg:
@@ -59,6 +64,7 @@ class Ping extends Task {
                                 + origcount + " rounds");
                         System.out.println("Time to send msg + context switch: " +
                                 (elapsed * 1000.0 / 2 / origcount) + " micros");
+                        System.out.println("Allocated per round trip: " + alloc.per(origcount) + " bytes");
                         System.exit(0);
                     }
                     break;
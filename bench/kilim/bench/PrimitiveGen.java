@@ -0,0 +1,85 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.bench;
+
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import kilim.Generator;
+import kilim.LongGenerator;
+import kilim.Pausable;
+
+/**
+ * the xorshift prng of kilim.examples.Xorshift as a hand-written PrimitiveIterator.OfLong, a LongGenerator
+ * and a boxed Generator, printing the nanos and the bytes allocated per value. weave with -r for the
+ * generators to reuse their frame states, else each value allocates the state of execute
+ * usage: PrimitiveGen numValues numReps
+ */
+public class PrimitiveGen {
+    public static void main(String[] args) {
+        long num = args.length > 0 ? Long.parseLong(args[0]) : 10000000;
+        int reps = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        for (int jj=0; jj < reps; jj++) {
+            cycle("iterator",new Hand(),num);
+            cycle("LongGenerator",new Prim(),num);
+            cycle("Generator<Long>",new Boxed(),num);
+        }
+    }
+
+    static void cycle(String name,Iterator<Long> iter,long num) {
+        Allocation alloc = new Allocation();
+        long start = System.nanoTime();
+        long val = 0;
+        if (iter instanceof PrimitiveIterator.OfLong) {
+            PrimitiveIterator.OfLong prim = (PrimitiveIterator.OfLong) iter;
+            for (long ii=0; ii < num; ii++)
+                val ^= prim.nextLong();
+        }
+        else
+            for (long ii=0; ii < num; ii++)
+                val ^= iter.next();
+        long duration = System.nanoTime() - start;
+        System.out.format("%-16s %8.2f nanos/op, %8.2f bytes/op, %20d\n",
+                name,1.0*duration/num,alloc.per(num),val);
+    }
+
+    static class Hand implements PrimitiveIterator.OfLong {
+        long s0=103, s1=17;
+        public boolean hasNext() { return true; }
+        public long nextLong() {
+            long x = s0;
+            long y = s1;
+            s0 = y;
+            x ^= (x << 23);
+            s1 = x ^ y ^ (x >> 17) ^ (y >> 26);
+            return s1 + y;
+        }
+    }
+
+    static class Prim extends LongGenerator {
+        public void execute() throws Pausable {
+            long s0=103, s1=17;
+            while (true) {
+                long x = s0;
+                long y = s1;
+                s0 = y;
+                x ^= (x << 23);
+                s1 = x ^ y ^ (x >> 17) ^ (y >> 26);
+                this.yield(s1 + y);
+            }
+        }
+    }
+
+    static class Boxed extends Generator<Long> {
+        public void execute() throws Pausable {
+            long s0=103, s1=17;
+            while (true) {
+                long x = s0;
+                long y = s1;
+                s0 = y;
+                x ^= (x << 23);
+                s1 = x ^ y ^ (x >> 17) ^ (y >> 26);
+                this.yield(s1 + y);
+            }
+        }
+    }
+}
@@ -10,6 +10,10 @@ import kilim.Mailbox;
 import kilim.Pausable;
 import kilim.Task;
 
+// Usage: java kilim.bench.Ring -n numTasks -t numTimesAroundRing
+// -Dkilim.Scheduler.type=stealing runs the ring on the work-stealing scheduler
+// -Dkilim.Scheduler.type=virtual runs each slice on a jdk virtual thread (java 21+)
+// -Dkilim.Scheduler.dispatch=saturate keeps the ring on as few workers as possible
 public class Ring extends Task {
     Mailbox<String> mb;
     Mailbox<String> prev;
@@ -18,6 +22,8 @@ public class Ring extends Task {
 
     public static boolean logging = false;
     static long startTime;
+    static ContextSwitches switches;
+    static long numMessages;
     public static void main(String[] args) {
         int n = 10; // num elements in ring.
         int t = 100000; // num times around ring
@@ -53,6 +59,8 @@ public class Ring extends Task {
             prevmb = mb;
         }
         start.prev = prevmb;
+        numMessages = (long) n * t;
+        switches = new ContextSwitches();
         startTime = System.currentTimeMillis();
         startmb.putnb("ring");
     }
@@ -76,6 +84,7 @@ public class Ring extends Task {
                 if (num == 1) { // last process
                     long elapsedTime = System.currentTimeMillis() - startTime;
                     System.out.println("Elapsed time: " + elapsedTime + " ms");
+                    System.out.println("Context switches per message: " + switches.per(numMessages));
                     System.exit(0);
                 }
             }
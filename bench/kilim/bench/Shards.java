@@ -0,0 +1,86 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.bench;
+
+import kilim.Mailbox;
+import kilim.MailboxSPSC;
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.Task;
+
+// Usage: java kilim.bench.Shards -p numPairs -n numMessages [-m]
+// streams messages from each producer to its consumer through a MailboxSPSC, or a Mailbox with -m
+// the pair is started back to back so that it lands on neighboring workers, ie every message crosses threads
+// -Dkilim.Scheduler.type=sharded hands each resume to the consumer's shard over a dedicated ring,
+// compare with the default shared pool and with -Dkilim.Scheduler.type=stealing
+public class Shards {
+    static int pairs = 4, num = 200000;
+    static boolean shared;
+
+    public static void main(String[] args) throws Exception {
+        for (int ii=0; ii < args.length; ii++) {
+            switch (args[ii]) {
+                case "-p": pairs = Integer.parseInt(args[++ii]); break;
+                case "-n": num = Integer.parseInt(args[++ii]); break;
+                case "-m": shared = true; break;
+            }
+        }
+        Scheduler sched = Scheduler.getDefaultScheduler();
+        System.out.format("scheduler: %s, threads: %d, mailbox: %s\n",
+                sched.getClass().getSimpleName(),sched.numThreads(),shared ? "Mailbox":"MailboxSPSC");
+        for (int rep=0; rep < 5; rep++) {
+            Task [] tasks = new Task[2*pairs];
+            for (int ii=0; ii < pairs; ii++) {
+                Box box = shared ? new Shared() : new Spsc();
+                tasks[2*ii] = new Producer(box);
+                tasks[2*ii+1] = new Consumer(box);
+            }
+            ContextSwitches switches = new ContextSwitches();
+            long start = System.nanoTime();
+            for (Task task : tasks)
+                task.start();
+            for (Task task : tasks)
+                task.joinb();
+            long delta = System.nanoTime() - start;
+            long total = (long) pairs * num;
+            System.out.format("%8d ms, %8.1f msgs/ms, switches/msg: %.4f\n",
+                    delta/1000000,total*1e6/delta,switches.per(total));
+        }
+        sched.idledown();
+    }
+
+    interface Box {
+        void put(Integer val) throws Pausable;
+        Integer get() throws Pausable;
+    }
+
+    static class Spsc implements Box {
+        MailboxSPSC<Integer> mb = new MailboxSPSC<>(64);
+        public void put(Integer val) throws Pausable { mb.put(val); }
+        public Integer get() throws Pausable { return mb.get(); }
+    }
+
+    static class Shared implements Box {
+        Mailbox<Integer> mb = new Mailbox<>(64,64);
+        public void put(Integer val) throws Pausable { mb.put(val); }
+        public Integer get() throws Pausable { return mb.get(); }
+    }
+
+    static class Producer extends Task {
+        Box box;
+        Producer(Box box) { this.box = box; }
+        public void execute() throws Pausable {
+            for (int ii=0; ii < num; ii++)
+                box.put(ii & 0xff);
+        }
+    }
+
+    static class Consumer extends Task {
+        Box box;
+        Consumer(Box box) { this.box = box; }
+        public void execute() throws Pausable {
+            for (int ii=0; ii < num; ii++)
+                box.get();
+        }
+    }
+}
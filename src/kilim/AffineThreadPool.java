@@ -5,8 +5,13 @@ package kilim;
 import com.conversantmedia.util.concurrent.DisruptorBlockingQueue;
 import kilim.timerservice.TimerService;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 /*
     fixme:vestigial - release note for pre-2.0
@@ -22,22 +27,41 @@ import java.util.concurrent.atomic.AtomicInteger;
     however, a number of methods were removed that were not used internally
     so any external usages will now be broken
 */
-public class AffineThreadPool {
+public class AffineThreadPool implements Dispatch.Workers {
 
     final Executor [] exes;
 
-    final AtomicInteger index = new AtomicInteger(-1);
+    /** the policy used to pick an executor for unpinned tasks */
+    volatile Dispatch dispatch = new Dispatch.RoundRobin();
+    /** tasks resumed by a task running in the pool use the run-next slot of that executor */
+    volatile boolean runNext;
+    /** the policy for a slice that doesn't fit in its executor's queue */
+    volatile Overflow overflow = new Overflow(Overflow.Policy.SPILL);
+    /** the timing of slices, or null if they aren't timed */
+    volatile SliceStats stats;
+    /** set while a thread runs an inline slice, so that an overflow from within the slice spills instead */
+    private static final ThreadLocal<Boolean> inlining = new ThreadLocal<>();
+    /** the cpu clock of the worker threads, or null if the jvm can't read it */
+    private static final ThreadMXBean cpu = cpuClock();
 
     private AtomicInteger count = new AtomicInteger(0);
     
 
     public AffineThreadPool(int numThreads,int queueSize,TimerService ts) {
+        this(numThreads,index -> new DisruptorBlockingQueue(queueSize),ts);
+    }
+
+    /**
+     * create a pool
+     * @param queues makes the queue for each executor, eg a RunQueue to serve tasks by priority
+     */
+    public AffineThreadPool(int numThreads,IntFunction<BlockingQueue<Runnable>> queues,TimerService ts) {
         exes = new Executor[numThreads];
         for (int ii=0; ii < numThreads; ii++) {
-            exes[ii] = new Executor(
+            exes[ii] = new Executor(ii,
                     //new LinkedBlockingQueue(queueSize),
                     //new ArrayBlockingQueue<Task>(queueSize),
-                    new DisruptorBlockingQueue(queueSize),
+                    queues.apply(ii),
                     ts);
         }
         ts.defaultExec = exes[0];
@@ -50,20 +74,36 @@ public class AffineThreadPool {
     // then the same TPE would get the expensive task each time
     //
     // fixme:context-switch
-    // if the threads are not saturated, this round robbin approach still triggers each thread
-    // seems more efficient to saturate 1 thread before triggering the others
-    // ie, to prevent context switching
-    private int next() {
-        int value = 0, newValue = 0;
-        do {
-            value = index.get();
-            newValue = (value==exes.length-1) ? 0:value+1;
-        } while (!index.compareAndSet(value,newValue));
-        return newValue;
-    }
-    
+    // if the threads are not saturated, the default round robbin approach still triggers each thread
+    // Dispatch.Saturate fills 1 thread before triggering the others, ie to prevent context switching
     void publish(Task task) {
-        publish(next(),task);
+        Executor exe = runNext ? current() : null;
+        if (exe != null && exe.charges && task != Scheduler.getCurrentTask())
+            // a fair queue orders every slice by group, so keep the locality but not the turn
+            publish(exe.index,task);
+        else if (exe != null && task != Scheduler.getCurrentTask()) {
+            count.incrementAndGet();
+            exe.pending.incrementAndGet();
+            task.setTid(exe.index);
+            // lifo - the displaced task goes to the back of the queue, as if it had been published normally
+            Task prev = exe.next;
+            exe.next = task;
+            if (prev != null)
+                exe.submit(prev);
+        }
+        else
+            publish(dispatch.select(this),task);
+    }
+
+    /** return the executor for the current thread if it belongs to this pool, otherwise null */
+    private Executor current() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Executor.Worker) {
+            Executor exe = ((Executor.Worker) thread).executor();
+            if (exe.pool()==this)
+                return exe;
+        }
+        return null;
     }
 
     void publish(int index,Task task) {
@@ -72,14 +112,38 @@ public class AffineThreadPool {
         exes[index].publish(task);
     }
 
+    /**
+     * publish a batch with each executor's share enqueued together
+     * @param index the executor for each task, or -1 to skip it
+     */
+    void publishAll(Task [] tasks,int [] index) {
+        int [] sizes = new int[exes.length];
+        int total = 0;
+        for (int ii : index)
+            if (ii >= 0) { sizes[ii]++; total++; }
+        count.addAndGet(total);
+        Task [][] shares = new Task[exes.length][];
+        for (int jj=0; jj < exes.length; jj++)
+            if (sizes[jj] > 0) shares[jj] = new Task[sizes[jj]];
+        // fill from the back to keep the order of the batch
+        for (int ii=tasks.length-1; ii >= 0; ii--)
+            if (index[ii] >= 0)
+                shares[index[ii]][--sizes[index[ii]]] = tasks[ii];
+        for (int jj=0; jj < exes.length; jj++)
+            if (shares[jj] != null)
+                exes[jj].publishAll(shares[jj]);
+    }
+
     public static void publish(ThreadPoolExecutor executor,Runnable payload) {
         Executor exe = (Executor) executor;
         exe.count().incrementAndGet();
+        exe.pending.incrementAndGet();
         // warning - adding directly to the queue is "strongly discouraged"
         // original motivation for this technique was to bypass the TPE wrapping of the task
         // not sure if this is still a consideration
         // fixme:verify - is it possible that executor has not yet started ???
-        executor.getQueue().add(payload);
+        if (! exe.que.offer(payload))
+            exe.spill(payload);
     }
 
     void shutdown() {
@@ -90,22 +154,11 @@ public class AffineThreadPool {
 
 
     /*
-        
-     wait till there are no pending timers
+     no pending timers
      no running tasks
      no tasks waiting to be run
-        
      */
-    public boolean waitIdle(TimerService ts,int delay) {
-        while (!Thread.interrupted()) {
-            if (resolved(ts))
-                return true;
-            try { Thread.sleep(delay); } catch (InterruptedException ex) { break; }
-        }
-        return false;
-    }
-
-    private boolean resolved(TimerService ts) {
+    boolean resolved(TimerService ts) {
         if (count.get() > 0) return false;
         return ts.isEmptyLazy(exes[0]);
     }
@@ -118,39 +171,279 @@ public class AffineThreadPool {
      */
     public boolean isEmptyish() {
         for (Executor exe : exes)
-            if (!exe.que.isEmpty()) return false;
+            if (!exe.que.isEmpty() || !exe.spill.isEmpty()) return false;
         return true;
     }
 
+    public int size() { return exes.length; }
+    public int pending(int index) { return exes[index].pending.get(); }
+    public long started(int index) { return exes[index].started; }
+
+    private static ThreadMXBean cpuClock() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean.isCurrentThreadCpuTimeSupported() && bean.isThreadCpuTimeEnabled() ? bean : null;
+    }
+
+    /**
+     * the cpu time of the current thread, or the wall clock if it isn't available. a queue that charges is
+     * charged cpu time, so a worker that the os deschedules mid-slice doesn't overcharge the slice's group
+     */
+    static long cpuTime() {
+        return cpu==null ? System.nanoTime() : cpu.getCurrentThreadCpuTime();
+    }
+
     public static boolean isEmptyProxy(ThreadPoolExecutor executor) {
         Executor exe = (Executor) executor;
         return exe.count().get()==0;
     }
 
-    class Executor extends ThreadPoolExecutor {
+    class Executor extends ThreadPoolExecutor implements TimerService.WatchdogContext {
         //LinkedBlockingQueue<Task> que;
-        final BlockingQueue<Task> que;
+        final BlockingQueue<Runnable> que;
+        /** whether the queue wants the duration of each slice, see SliceQueue.charge */
+        final boolean charges;
         AtomicInteger pending = new AtomicInteger();
+        /** slices that didn't fit in the queue, moved back in order as room frees up, see Overflow */
+        final ConcurrentLinkedDeque<Runnable> spill = new ConcurrentLinkedDeque<>();
+        final AtomicInteger spilled = new AtomicInteger();
+        /** the nanoTime that the running task started, or 0 if idle */
+        volatile long started;
+        /** the cpu time of the worker when the running task started, if the queue charges, worker only */
+        private long startedCpu;
         private TimerService timerService;
+        final int index;
+        /** the run-next slot and the number of tasks run from it in a row, accessed only by the pool thread */
+        Task next;
+        int streak;
+        /** the slot of this worker in the stats, and the slot timing the running slice, worker only */
+        private SliceStats.Slot slot, timing;
         
         private AtomicInteger count() { return count; }
+        AffineThreadPool pool() { return AffineThreadPool.this; }
+
+        class Worker extends Thread {
+            Worker(Runnable runnable) {
+                super(runnable,"KilimAffine:" + index);
+                setDaemon(false);
+                setPriority(Thread.NORM_PRIORITY);
+            }
+            Executor executor() { return Executor.this; }
+        }
 
         void publish(Task task) {
             pending.incrementAndGet();
             submit(task);
             //execute(task);
         }
+
+        /** enqueue a batch directly, bypassing submit so that a SliceQueue can signal the worker just once */
+        void publishAll(Task [] share) {
+            pending.addAndGet(share.length);
+            prestartCoreThread();
+            List<Runnable> slices = new ArrayList<>(share.length);
+            for (Task task : share) {
+                task.setTid(index);
+                slices.add(newTaskFor(task,null));
+            }
+            if (que instanceof SliceQueue && ((SliceQueue) que).offerAll(slices))
+                return;
+            for (Runnable slice : slices)
+                if (!que.offer(slice))
+                    execute(slice);
+        }
         
-        public Executor(BlockingQueue que, TimerService ts) {
+        public Executor(int index,BlockingQueue que, TimerService ts) {
             super(1,1,Integer.MAX_VALUE,TimeUnit.DAYS,que);
+            this.index = index;
             this.que = que;
+            charges = que instanceof SliceQueue && ((SliceQueue) que).charges();
             timerService = ts;
+            setThreadFactory(Worker::new);
+            setRejectedExecutionHandler((runnable,executor) -> overflow(runnable));
+        }
+
+        /** handle a slice that didn't fit in the queue, see Overflow */
+        void overflow(Runnable runnable) {
+            if (isShutdown())
+                throw new RejectedExecutionException("shutdown: " + runnable);
+            Overflow policy = overflow;
+            Task task = runnable instanceof SliceQueue.Slice ? ((SliceQueue.Slice) runnable).task : null;
+            // pinned and keyed tasks (and non-task runnables) must stay on this executor
+            boolean free = task != null && task.preferredResumeThread < 0 && task.bucket < 0;
+            Overflow.Policy kind = free ? policy.policy : Overflow.Policy.SPILL;
+            if (kind==Overflow.Policy.REDIRECT && redirect(runnable,task))
+                policy.redirect();
+            else if (kind==Overflow.Policy.INLINE && inlining.get()==null) {
+                policy.inline();
+                inline(runnable);
+            }
+            else if (kind==Overflow.Policy.REJECT) {
+                unpublish();
+                policy.reject(task);
+            }
+            else
+                spill(runnable);
+        }
+
+        void spill(Runnable runnable) {
+            overflow.spill(spilled.incrementAndGet());
+            spill.offerLast(runnable);
+            // the queue may have drained since the offer failed, and the worker only refills after a slice
+            refill();
+        }
+
+        /** move spilled slices back into the queue while there's room */
+        private void refill() {
+            for (Runnable runnable; (runnable = spill.pollFirst()) != null; ) {
+                if (!que.offer(runnable)) {
+                    spill.offerFirst(runnable);
+                    return;
+                }
+                spilled.decrementAndGet();
+            }
+        }
+
+        /** hand the slice to the least loaded other executor with room, returning false if there's none */
+        private boolean redirect(Runnable runnable,Task task) {
+            Executor best = null;
+            for (Executor exe : exes)
+                if (exe != this && exe.que.remainingCapacity() > 0
+                        && (best==null || exe.pending.get() < best.pending.get()))
+                    best = exe;
+            if (best==null)
+                return false;
+            task.setTid(best.index);
+            best.pending.incrementAndGet();
+            best.prestartCoreThread();
+            if (!best.que.offer(runnable)) {
+                best.pending.decrementAndGet();
+                task.setTid(index);
+                return false;
+            }
+            pending.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * run the slice in the calling thread, restoring the thread's current task. the slice is stacked on the
+         * caller, eg on the slice of the task whose Mailbox.put resumed it, and runs to its next pause on the
+         * caller's thread and stack before the caller continues. it's accounted as a slice of this executor,
+         * ie charged to its group and queue and timed by the stats, and a calling worker isn't charged for it
+         */
+        private void inline(Runnable runnable) {
+            SliceQueue.Slice<?> slice = (SliceQueue.Slice<?>) runnable;
+            Task prev = Scheduler.getCurrentTask();
+            Thread thread = Thread.currentThread();
+            Executor caller = thread instanceof Worker ? ((Worker) thread).executor() : null;
+            SliceStats current = stats;
+            // the caller's slot, if it's timing for the same stats, is lent to the nested slice
+            SliceStats.Slot lent = caller != null && caller.timing != null && caller.timing.stats==current
+                    ? caller.timing : null;
+            Task outer = lent==null ? null : lent.task;
+            long outerStarted = lent==null ? 0 : lent.started;
+            boolean cpu = charges || caller != null && caller.charges;
+            long start = System.nanoTime(), startCpu = cpu ? cpuTime() : 0;
+            if (lent != null) lent.begin(slice.task,start);
+            inlining.set(true);
+            try { runnable.run(); }
+            finally {
+                inlining.remove();
+                Scheduler.setCurrentTask(prev);
+                long now = System.nanoTime(), nanos = now - start, cpuNanos = cpu ? cpuTime() - startCpu : 0;
+                if (slice.group != null) slice.group.charge(nanos);
+                if (charges) ((SliceQueue) que).chargeRemote(slice.group,cpuNanos);
+                if (lent != null) {
+                    lent.end(now);
+                    if (outerStarted != 0) lent.begin(outer,outerStarted + nanos);
+                }
+                else if (current != null && slice.task != null)
+                    current.record(slice.task,nanos);
+                if (caller != null && caller.started != 0) {
+                    caller.started += nanos;
+                    caller.startedCpu += cpuNanos;
+                }
+                if (slice.task != null)
+                    slice.task.release();
+                unpublish();
+            }
+        }
+
+        /** undo the accounting for a slice that this executor won't run */
+        private void unpublish() {
+            pending.decrementAndGet();
+            if (count.decrementAndGet()==0)
+                timerService.idleLatch.signal();
+        }
+
+        // the slice remembers its task's priority and group for the SliceQueue variants
+        protected <TT> RunnableFuture<TT> newTaskFor(Runnable runnable,TT value) {
+            return new SliceQueue.Slice<>(runnable,value);
+        }
+
+        public boolean isEmpty() { return count.get()==0; }
+        public boolean isEmptyish() { return AffineThreadPool.this.isEmptyish(); }
+        public void publish(TimerService.WatchdogTask dog) { AffineThreadPool.publish(this,dog); }
+
+        protected void beforeExecute(Thread t,Runnable r) {
+            started = System.nanoTime();
+            if (charges) startedCpu = cpuTime();
+            streak = 0;
+            if (r instanceof SliceQueue.Slice)
+                time(t,((SliceQueue.Slice) r).task);
+        }
+
+        /** start timing a slice if the stats are enabled */
+        private void time(Thread thread,Task task) {
+            SliceStats current = stats;
+            if (current==null || task==null)
+                return;
+            if (slot==null || slot.stats != current)
+                slot = current.slot(thread);
+            timing = slot;
+            timing.begin(task,started);
         }
 
         protected void afterExecute(Runnable r,Throwable t) {
+            SliceQueue.Slice<?> slice = r instanceof SliceQueue.Slice ? (SliceQueue.Slice<?>) r : null;
+            done(slice==null ? null : slice.task,slice==null ? null : slice.group);
+            // run the contents of the run-next slot inline, bounded so that a pair of tasks
+            // that keep waking each other can't starve the queue
+            for (Task task; (task = next) != null; ) {
+                next = null;
+                if (++streak > Scheduler.runNextLimit) {
+                    submit(task);
+                    break;
+                }
+                started = System.nanoTime();
+                if (charges) startedCpu = cpuTime();
+                time(Thread.currentThread(),task);
+                // an exited task is reset by release, so the group is read first
+                Group group = task.group;
+                task.run();
+                done(task,group);
+            }
+        }
+
+        /** account for a slice of the task, or of a non-task runnable if null, then release the task */
+        private void done(Task task,Group group) {
+            if (!spill.isEmpty())
+                refill();
+            if (group != null || charges || timing != null) {
+                long now = System.nanoTime(), nanos = now - started;
+                if (group != null) group.charge(nanos);
+                if (charges) ((SliceQueue) que).charge(group,cpuTime() - startedCpu);
+                if (timing != null) {
+                    timing.end(now);
+                    timing = null;
+                }
+            }
+            started = 0;
+            if (task != null)
+                task.release();
             pending.decrementAndGet();
             timerService.trigger(this);
-            count.decrementAndGet();
+            if (count.decrementAndGet()==0)
+                timerService.idleLatch.signal();
         }
     }
 
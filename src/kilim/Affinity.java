@@ -0,0 +1,152 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * the map from affinity keys to workers, see Task.setAffinity and Scheduler.schedule(Object,Task)
+ * keys hash into buckets, ie key ranges, and each bucket is owned by a worker, so tasks with the same key always
+ * run on the same worker and a shard's state can be touched without locks
+ *
+ * move reassigns a bucket, eg when a worker becomes hot, and a Rebalancer can do so based on the number of
+ * times each bucket has been routed. a move only takes effect once no task routed to the bucket is queued or
+ * running, so tasks with the same key never run concurrently on the old and new workers
+ */
+public class Affinity {
+    private final int workers;
+    private final AtomicIntegerArray owners;
+    /** the number of tasks routed to each bucket that are queued or running */
+    private final AtomicIntegerArray inflight;
+    private final AtomicLongArray hits;
+    /** the pending move for each bucket or -1, guarded by this */
+    private final int [] targets;
+    /** the number of pending moves */
+    private volatile int moves;
+
+    /**
+     * @param workers the number of workers
+     * @param buckets the number of buckets, a multiple of workers spreads the keys evenly
+     */
+    public Affinity(int workers,int buckets) {
+        this.workers = workers;
+        owners = new AtomicIntegerArray(buckets);
+        inflight = new AtomicIntegerArray(buckets);
+        hits = new AtomicLongArray(buckets);
+        targets = new int[buckets];
+        for (int ii=0; ii < buckets; ii++) {
+            owners.set(ii,ii % workers);
+            targets[ii] = -1;
+        }
+    }
+
+    public int workers() { return workers; }
+
+    public int buckets() { return targets.length; }
+
+    public int bucket(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & 0x7fffffff) % targets.length;
+    }
+
+    /** the worker that owns the bucket */
+    public int owner(int bucket) { return owners.get(bucket); }
+
+    /** the number of times that the bucket has been routed since the last reset */
+    public long hits(int bucket) { return hits.get(bucket); }
+
+    public void resetHits() {
+        for (int ii=0; ii < targets.length; ii++)
+            hits.set(ii,0);
+    }
+
+    /**
+     * move the bucket to a worker, which takes effect once no task routed to it is queued or running
+     * @param bucket the bucket, see bucket(Object)
+     * @param worker the new owner
+     */
+    public synchronized void move(int bucket,int worker) {
+        if (targets[bucket] < 0) moves++;
+        targets[bucket] = worker;
+        if (inflight.get(bucket)==0)
+            apply(bucket);
+    }
+
+    // guarded by this
+    private void apply(int bucket) {
+        owners.set(bucket,targets[bucket]);
+        targets[bucket] = -1;
+        moves--;
+    }
+
+    /**
+     * route a task to the owner of its bucket, which must be matched by a call to done
+     * @return the worker index
+     */
+    int route(int bucket) {
+        hits.incrementAndGet(bucket);
+        // increment before checking for moves, so a move either sees the task in flight or is seen here
+        inflight.incrementAndGet(bucket);
+        if (moves==0)
+            return owners.get(bucket);
+        synchronized (this) {
+            if (targets[bucket] >= 0 && inflight.get(bucket)==1)
+                apply(bucket);
+            return owners.get(bucket);
+        }
+    }
+
+    /** the slice of a task routed to the bucket has completed */
+    void done(int bucket) {
+        if (inflight.decrementAndGet(bucket)==0 && moves > 0)
+            synchronized (this) {
+                if (targets[bucket] >= 0 && inflight.get(bucket)==0)
+                    apply(bucket);
+            }
+    }
+
+    /** a policy that moves buckets between workers, see Scheduler.rebalance */
+    public interface Rebalancer {
+        /**
+         * @param affinity the buckets
+         * @param load the current load of the workers
+         */
+        void rebalance(Affinity affinity,Dispatch.Workers load);
+    }
+
+    /**
+     * move a single bucket from the worker with the most hits to the one with the fewest,
+     * choosing the busiest bucket that doesn't reverse the imbalance, then reset the hits
+     */
+    public static class Hottest implements Rebalancer {
+        /** the ratio of hits between the hottest and coolest workers that triggers a move */
+        public final double ratio;
+
+        public Hottest(double ratio) { this.ratio = ratio; }
+
+        public void rebalance(Affinity affinity,Dispatch.Workers load) {
+            long [] sums = new long[affinity.workers];
+            int num = affinity.buckets();
+            for (int ii=0; ii < num; ii++)
+                sums[affinity.owner(ii)] += affinity.hits(ii);
+            int hot = 0, cool = 0;
+            for (int ii=1; ii < sums.length; ii++) {
+                if (sums[ii] > sums[hot]) hot = ii;
+                if (sums[ii] < sums[cool]) cool = ii;
+            }
+            if (hot != cool && sums[hot] > ratio*sums[cool]) {
+                long gap = (sums[hot]-sums[cool])/2, best = 0;
+                int pick = -1;
+                for (int ii=0; ii < num; ii++) {
+                    long hits = affinity.hits(ii);
+                    if (affinity.owner(ii)==hot && hits <= gap && hits > best) { best = hits; pick = ii; }
+                }
+                if (pick >= 0)
+                    affinity.move(pick,cool);
+            }
+            affinity.resetHits();
+        }
+    }
+}
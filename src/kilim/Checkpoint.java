@@ -0,0 +1,97 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+
+/**
+ * write a paused task to a stream and rebuild it, eg in another jvm running the same woven classes, so that
+ * it continues from the pause without replaying the work that led up to it.
+ * the task class must implement Serializable, and its fields and the values live in its paused frames go
+ * through java serialization, while the frames themselves are written compactly by the fiber.
+ * the fields of Task aren't serialized, so the rebuilt task gets a new id and no scheduler, exit mailboxes,
+ * group or timer, while the priority and a serializable affinity key are kept.
+ * the rebuilt task is resumed by start(), and the code at the top of its stack rechecks the condition that
+ * it paused for, eg a Mailbox.get pauses again if the mailbox is empty, while a sleep returns early
+ */
+public class Checkpoint {
+    private static final int MAGIC = 0x4b434b31; // KCK1
+
+    /**
+     * write a paused task, which may not be running, done, or pinned to a thread.
+     * the task is held while it's written, and resumed afterwards if it was woken in between
+     */
+    public static void write(Task task,OutputStream os) throws IOException {
+        if (!(task instanceof Serializable))
+            throw new NotSerializableException(task.getClass().getName());
+        if (task.done)
+            throw new IllegalStateException("task is done: " + task);
+        if (!task.claim())
+            throw new IllegalStateException("task is running: " + task);
+        try {
+            if (task.numActivePins > 0)
+                throw new IllegalStateException("task is pinned to a thread: " + task);
+            if (task.fiber.image != null)
+                task.fiber.thaw();
+            ObjectOutputStream out = new ObjectOutputStream(os);
+            out.writeInt(MAGIC);
+            out.writeObject(task);
+            out.writeInt(task.priority);
+            Object key = task.affinity;
+            out.writeObject(key instanceof Serializable ? key : null);
+            task.fiber.write(out);
+            out.flush();
+        }
+        finally {
+            PauseReason pr = task.pauseReason;
+            task.running = 0;
+            if (pr != null && !pr.isValid(task))
+                task.resume();
+        }
+    }
+
+    public static byte[] write(Task task) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(task,bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * rebuild a task written by write(), resolving classes with loader, or if null the loader of this class.
+     * the task has no scheduler, see Task.setScheduler and Task.start
+     */
+    public static Task read(InputStream is,ClassLoader loader) throws IOException, ClassNotFoundException {
+        ClassLoader cl = loader==null ? Checkpoint.class.getClassLoader() : loader;
+        ObjectInputStream in = new ObjectInputStream(is) {
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                try { return Class.forName(desc.getName(),false,cl); }
+                catch (ClassNotFoundException ex) { return super.resolveClass(desc); }
+            }
+        };
+        if (in.readInt() != MAGIC)
+            throw new StreamCorruptedException("not a kilim checkpoint");
+        Object obj = in.readObject();
+        if (!(obj instanceof Task))
+            throw new InvalidClassException(obj==null ? "null" : obj.getClass().getName(),"not a Task");
+        Task task = (Task) obj;
+        task.priority = in.readInt();
+        task.affinity = in.readObject();
+        task.fiber.read(in,task.getClass().getClassLoader());
+        return task;
+    }
+
+    public static Task read(byte[] bytes) throws IOException, ClassNotFoundException {
+        return read(new ByteArrayInputStream(bytes),null);
+    }
+}
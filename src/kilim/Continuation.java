@@ -72,7 +72,7 @@ public abstract class Continuation implements Fiber.Worker {
      * cannot be called directly - use run() instead
      * use Fiber.yield() to yield control cooperatively and return execution to the caller of run()
      */
-    public void execute() throws Exception {
+    public void execute() throws Pausable, Exception {
         Task.errNotWoven();
     }
     /**
@@ -0,0 +1,115 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the policy that a Scheduler uses to pick the worker for a newly runnable, unpinned task,
+ * and to decide when a backlog on one worker justifies waking another
+ *
+ * RoundRobin is the historical behavior, ie every worker is triggered in turn
+ * Saturate keeps work on the lowest numbered workers that are already awake and only spills over to another
+ * worker once the queue depth or the duration of the running slice passes a threshold,
+ * which for lightly loaded schedulers avoids the park/unpark (and context switch) per message
+ *
+ * select with -Dkilim.Scheduler.dispatch=saturate or Scheduler.setDispatch
+ */
+public interface Dispatch {
+
+    /** the load of the workers of a pool, as seen by a policy */
+    interface Workers {
+        int size();
+        /** the number of tasks queued or running on the worker */
+        int pending(int index);
+        /** the System.nanoTime at which the worker started its current slice, or 0 if it's not running a task */
+        long started(int index);
+    }
+
+    /**
+     * select the worker for a task
+     * @param pool the workers
+     * @return the index of the selected worker
+     */
+    int select(Workers pool);
+
+    /**
+     * should an idle worker be woken to help with the backlog of a worker
+     * @param pool the workers
+     * @param index the worker that just had a task queued
+     */
+    boolean spill(Workers pool,int index);
+
+    public static class RoundRobin implements Dispatch {
+        private final AtomicInteger index = new AtomicInteger(-1);
+
+        public int select(Workers pool) {
+            int num = pool.size();
+            int value = 0, newValue = 0;
+            do {
+                value = index.get();
+                newValue = (value >= num-1) ? 0:value+1;
+            } while (!index.compareAndSet(value,newValue));
+            return newValue;
+        }
+
+        public boolean spill(Workers pool,int index) { return true; }
+    }
+
+    public static class Saturate implements Dispatch {
+        /** the queue depth at which a worker is considered saturated */
+        public final int depth;
+        /** the slice duration, in nanoseconds, after which a busy worker is considered saturated */
+        public final long latency;
+
+        public Saturate() {
+            this(Integer.getInteger("kilim.Dispatch.depth",32),
+                    1000L*Integer.getInteger("kilim.Dispatch.latency",500));
+        }
+
+        /**
+         * @param depth the queue depth at which a worker is saturated
+         * @param latency the slice duration in nanoseconds at which a worker is saturated
+         */
+        public Saturate(int depth,long latency) {
+            this.depth = depth;
+            this.latency = latency;
+        }
+
+        boolean saturated(Workers pool,int index,long now) {
+            if (pool.pending(index) >= depth) return true;
+            long started = pool.started(index);
+            return started != 0 && now-started > latency;
+        }
+
+        public int select(Workers pool) {
+            int num = pool.size(), idle = -1, least = 0, min = Integer.MAX_VALUE;
+            long now = System.nanoTime();
+            for (int ii=0; ii < num; ii++) {
+                int pending = pool.pending(ii);
+                if (pending==0) {
+                    if (idle < 0) idle = ii;
+                }
+                else if (!saturated(pool,ii,now))
+                    return ii;
+                if (pending < min) { min = pending; least = ii; }
+            }
+            return idle >= 0 ? idle : least;
+        }
+
+        public boolean spill(Workers pool,int index) {
+            return saturated(pool,index,System.nanoTime());
+        }
+    }
+
+    /**
+     * create a policy by name
+     * @param name "saturate" or "roundrobin" (the default)
+     */
+    public static Dispatch make(String name) {
+        switch (name) {
+            case "saturate": return new Saturate();
+            default:         return new RoundRobin();
+        }
+    }
+}
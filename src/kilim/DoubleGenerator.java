@@ -0,0 +1,43 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * a Generator specialized for double values, an iterator driven by a pausable execute method that yields
+ * each value with yield(double). the value is held in a field of the generator rather than boxed, so a
+ * yield allocates nothing and every double is a valid value. next() is inherited from PrimitiveIterator.OfDouble
+ * and boxes, so use nextDouble() or forEachRemaining(DoubleConsumer) in place of it. the frames that pause
+ * still save a state each, which is reused when woven with KilimContext.reuseState (the weaver's -r)
+ * @see Generator
+ */
+public class DoubleGenerator extends Continuation implements PrimitiveIterator.OfDouble, Iterable<Double> {
+    double nextVal;
+    boolean hasVal;
+    boolean done = false;
+
+    public boolean hasNext() {
+        if (!hasVal && !done)
+            done = run();
+        return hasVal;
+    }
+
+    public double nextDouble() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        hasVal = false;
+        return nextVal;
+    }
+
+    public PrimitiveIterator.OfDouble iterator() {
+        return this;
+    }
+
+    public void yield(double val) throws Pausable {
+        nextVal = val;
+        hasVal = true;
+        Fiber.yield();
+    }
+}
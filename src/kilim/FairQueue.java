@@ -0,0 +1,169 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a bounded run queue for an AffineThreadPool executor that shares the worker between scheduling groups
+ * by weighted deficit round robin, see Group and Scheduler(int,int,boolean)
+ *
+ * each group with queued slices gets a lane. the lanes are visited in turn, and each visit credits the lane
+ * with quantum times the group's weight. the lane is served while its credit is positive and the cpu time of
+ * each slice is charged against it, so a group whose slices run long (or that floods the queue) only gets its
+ * share. credit isn't kept by a lane that empties, while an overdraft is paid down by a quantum per pass, and
+ * once it's empty and even the lane is retired, so short-lived groups, eg one per connection, don't accumulate
+ *
+ * tasks without a group and runnables that aren't task slices, eg the timer watchdog, share a lane of weight 1
+ */
+public class FairQueue extends SliceQueue {
+    private final long quantum;
+    private final Lane fallback = new Lane(null);
+    private final ConcurrentHashMap<Group,Lane> map = new ConcurrentHashMap<>();
+    /** the lanes in visiting order, replaced (under map) when a group is first seen or its lane is retired */
+    private volatile Lane [] lanes = { fallback };
+    /** the index of the lane being visited, consumer only */
+    private int cursor;
+
+    /**
+     * @param capacity the most runnables that can be queued
+     * @param quantum the credit per visit for a group of weight 1, in nanoseconds
+     */
+    public FairQueue(int capacity,long quantum) {
+        super(capacity);
+        this.quantum = quantum;
+    }
+
+    static class Lane {
+        final Group group;
+        final int weight;
+        final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        /** the credit in nanoseconds and whether the current visit has been credited, consumer only */
+        long deficit;
+        boolean credited;
+        /** charges from other threads, see chargeRemote, folded into the deficit by the consumer */
+        final AtomicLong remote = new AtomicLong();
+        /** set (under map) once the lane has been dropped, after which a producer must find a new lane */
+        volatile boolean retired;
+        Lane(Group group) {
+            this.group = group;
+            weight = group==null ? 1 : group.weight;
+        }
+    }
+
+    private Lane lane(Group group) {
+        if (group==null) return fallback;
+        Lane lane = map.get(group);
+        if (lane != null && !lane.retired) return lane;
+        synchronized (map) {
+            lane = map.get(group);
+            if (lane==null) {
+                lane = new Lane(group);
+                Lane [] prev = lanes, next = Arrays.copyOf(prev,prev.length+1);
+                next[prev.length] = lane;
+                map.put(group,lane);
+                lanes = next;
+            }
+            return lane;
+        }
+    }
+
+    void enqueue(Runnable runnable) {
+        Group group = runnable instanceof Slice ? ((Slice) runnable).group : null;
+        // the lane may be retired between the lookup and the offer, in which case the consumer no longer
+        // visits it, so take the runnable back and retry. if it's already gone, it was served or deleted
+        for (Lane lane; ; ) {
+            lane = lane(group);
+            lane.queue.offer(runnable);
+            if (!lane.retired || !lane.queue.remove(runnable))
+                return;
+        }
+    }
+
+    /**
+     * drop an empty lane, unless a producer has just offered to it. the flag is set before the check, so
+     * a producer either sees it after offering or its runnable is seen here
+     */
+    private boolean retire(Lane lane) {
+        synchronized (map) {
+            lane.retired = true;
+            if (!lane.queue.isEmpty()) {
+                lane.retired = false;
+                return false;
+            }
+            map.remove(lane.group);
+            Lane [] prev = lanes, next = new Lane[prev.length-1];
+            for (int ii=0, jj=0; ii < prev.length; ii++)
+                if (prev[ii] != lane)
+                    next[jj++] = prev[ii];
+            lanes = next;
+            return true;
+        }
+    }
+
+    /** the number of lanes, ie the groups with queued or recently run slices plus the shared lane */
+    public int lanes() {
+        return lanes.length;
+    }
+
+    Runnable dequeue() {
+        Lane [] all = lanes;
+        // an overdrawn lane is credited once per pass, so this terminates once every lane is empty
+        for (int empty = 0; empty < all.length; ) {
+            if (cursor >= all.length) cursor = 0;
+            Lane lane = all[cursor];
+            if (lane.remote.get() != 0)
+                lane.deficit -= lane.remote.getAndSet(0);
+            if (lane.queue.isEmpty()) {
+                if (lane.deficit > 0) lane.deficit = 0;
+                else if (lane.deficit < 0) lane.deficit = Math.min(0,lane.deficit + quantum * lane.weight);
+                lane.credited = false;
+                empty++;
+                // the next lane slides into the retired lane's place
+                if (lane.deficit==0 && lane != fallback && retire(lane)) all = lanes;
+                else cursor++;
+                continue;
+            }
+            empty = 0;
+            if (!lane.credited) {
+                lane.deficit += quantum * lane.weight;
+                lane.credited = true;
+            }
+            if (lane.deficit > 0) {
+                Runnable runnable = lane.queue.poll();
+                if (runnable != null)
+                    return runnable;
+                continue;
+            }
+            lane.credited = false;
+            cursor++;
+        }
+        return null;
+    }
+
+    boolean charges() { return true; }
+
+    void charge(Group group,long nanos) {
+        lane(group).deficit -= nanos;
+    }
+
+    void chargeRemote(Group group,long nanos) {
+        lane(group).remote.addAndGet(nanos);
+    }
+
+    boolean delete(Object obj) {
+        for (Lane lane : lanes)
+            if (lane.queue.remove(obj))
+                return true;
+        return false;
+    }
+
+    void collect(Collection<Runnable> dst) {
+        for (Lane lane : lanes)
+            dst.addAll(lane.queue);
+    }
+}
@@ -6,8 +6,18 @@
 
 package kilim;
 
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 
 /**
  * This class serves as a context to manage and store the continuation stack.
@@ -42,13 +52,48 @@ public final class Fiber {
     /*
      * One State object for each activation frame in the call hierarchy.
      */
-    private State[]            stateStack              = new State[10];
+    private State[]            stateStack              = new State[initialDepth];
+
+    /** the initial size of stateStack, which is doubled as needed. small since most tasks pause shallow */
+    static final int           initialDepth            = 4;
 
     /*
      * Index into stateStack and equal to depth of call hierarchy - 1
      */
     private int                iStack                  = -1;
 
+    /*
+     * the states released by up() at each depth, for reuse by the next save at that depth by code woven
+     * with KilimContext.reuseState. allocated by the first call to spare(). plain states, ie stateless and
+     * PAUSE_STATE, aren't kept
+     */
+    private State[]            spares;
+
+    /*
+     * the states for frames that save nothing but pc and self, one per depth and reused by each pause at
+     * that depth (see setStateless). allocated by the first such pause
+     */
+    private State[]            stateless;
+
+    /** the stub of a hibernated fiber, whose states have been moved off the heap, or null */
+    Hibernator.Image           image;
+
+    /** the number of slices begun, read by the hibernator to tell that a task has been idle */
+    int                        slices;
+
+    /**
+     * the budget of a slice for code woven with preemption (see KilimContext.preempt), ie the number of
+     * loop back-edges between reads of the clock, and the nanos that a slice may run before the next read
+     * yields. with a non-positive duration, a slice yields after a single round of back-edges
+     */
+    public static int preemptTicks = Integer.getInteger("kilim.preempt.ticks",1024);
+    public static long preemptNanos = 1000L*Long.getLong("kilim.preempt.micros",1000L);
+
+    /** the back-edges remaining before the clock is read */
+    private int                ticks;
+    /** the nanoTime that the slice expires, or 0 if the clock hasn't been read during this slice */
+    private long               deadline;
+
     boolean                    isPausing;
     
     boolean                    isDone;
@@ -116,6 +161,8 @@ public final class Fiber {
         curState = null;
         pc = 0;
         Arrays.fill(stateStack, null);
+        if (spares != null) Arrays.fill(spares, null);
+        if (stateless != null) Arrays.fill(stateless, null);
         iStack = -1;
         isPausing = false;
         isDone = false;
@@ -178,6 +225,8 @@ public final class Fiber {
             } else {
                 stack[d] = null; // clean up
                 pc = cs.pc;
+                if (spares != null && d < spares.length && cs.getClass() != State.class)
+                    spares[d] = cs;
 //                if (debug) System.out.println("\nup(not pausing)" + this);;
 //                if (debug) ds();
                 return NOT_PAUSING__HAS_STATE;
@@ -187,6 +236,9 @@ public final class Fiber {
     
     
     public final Fiber begin() {
+        slices++;
+        ticks = preemptTicks;
+        deadline = 0;
         return down();
     }
     
@@ -200,6 +252,8 @@ public final class Fiber {
         if (isDone) {
             // clean up callee's state
             stateStack[0] = null;
+            if (spares != null) Arrays.fill(spares, null);
+            if (stateless != null) Arrays.fill(stateless, null);
         }
         // reset pausing for next round.
         isPausing = false;
@@ -233,6 +287,27 @@ public final class Fiber {
         return this;
     }
     
+    /**
+     * called by the preemption check at a loop back-edge, true if the slice has used up its budget.
+     * the clock starts at the first read, so a slice runs for up to preemptTicks back-edges past the
+     * duration. generators and continuations are driven by their caller, so they never expire
+     */
+    public boolean expired() {
+        if (--ticks > 0)
+            return false;
+        ticks = preemptTicks;
+        if (task instanceof Continuation.FakeTask)
+            return false;
+        if (preemptNanos <= 0)
+            return true;
+        long now = System.nanoTime();
+        if (deadline==0) {
+            deadline = now + preemptNanos;
+            return false;
+        }
+        return now - deadline >= 0;
+    }
+
     static void ds() {
         for (StackTraceElement ste: new Exception().getStackTrace()) {
             String cl = ste.getClassName();
@@ -265,11 +340,29 @@ public final class Fiber {
      * The call stack below runExecute may be owned by the scheduler, which
      * may permit more than one task to build up on the stack. For this reason,
      * we let the scheduler tell us the depth of upEx below the task's execute().
+     * The weaver now records the depth in the prelude and calls upEx(int) instead,
+     * so this is only used by classes woven by earlier versions.
      * @return Fiber.pc (note: in contrast up() returns status)
      */
     public int upEx() {
         // compute new iStack. 
-        int is = Task.getStackDepth(task) - 2; // remove upEx and convert to 0-based index. 
+        return upEx(Task.getStackDepth(task) - 2); // remove upEx and convert to 0-based index. 
+    }
+
+    /**
+     * the depth of the current frame, read by the prelude of a method that catches exceptions thrown
+     * by its pausable calls and passed back to upEx(int) by its handler
+     */
+    public int depth() {
+        return iStack;
+    }
+
+    /**
+     * called by the generated code on entry to a catch handler, with the depth of the method (see depth()).
+     * the states of the frames that the exception unwound are released, and no stack trace is needed
+     * @return Fiber.pc (note: in contrast up() returns status)
+     */
+    public int upEx(int is) {
         State cs = stateStack[is];
 
         for (int i = iStack; i >= is; i--) {
@@ -298,6 +391,64 @@ public final class Fiber {
         }
     }
 
+    /**
+     * called by the woven code of a call to a pausable functional interface, once up() has returned a
+     * pausing status, to record the receiver in the callee's state for getCallee. the receiver may be a
+     * lambda, whose class is generated by the vm and not woven, so the state saved by the lambda body
+     * holds the enclosing instance (or nothing) as self rather than the receiver
+     */
+    public void upCallee(Object callee) {
+        State s = stateStack[iStack + 1];
+        if (s != PAUSE_STATE)
+            s.self = callee;
+    }
+
+    /**
+     * called by code woven with KilimContext.reuseState before saving a frame, returns the state that was
+     * last restored at this depth if it's exactly of class cls, otherwise null and the caller allocates.
+     * the restore has read the fields before the frame runs again, so the state can be overwritten, and
+     * any fields that the frame doesn't save keep their stale values, which are never read
+     */
+    public State spare(Class<?> cls) {
+        State[] sp = spares;
+        int d = iStack;
+        if (sp == null || d >= sp.length) {
+            spares = new State[Math.max(stateStack.length, d + 1)];
+            if (sp != null)
+                System.arraycopy(sp, 0, spares, 0, sp.length);
+            return null;
+        }
+        State s = sp[d];
+        if (s == null || s.getClass() != cls)
+            return null;
+        sp[d] = null;
+        return s;
+    }
+
+    /**
+     * called by the generated code before unwinding a frame that has nothing to save but the pc and self,
+     * eg a pausable call in tail position, see CallWeaver.isStateless. the frame reads nothing from its state
+     * when it resumes, so the fiber keeps one per depth, which has been released by up() before the next save
+     * at that depth
+     */
+    public void setStateless(int pc, Object self) {
+        State[] ts = stateless;
+        int d = iStack;
+        if (ts == null || d >= ts.length) {
+            ts = new State[Math.max(stateStack.length, d + 1)];
+            if (stateless != null)
+                System.arraycopy(stateless, 0, ts, 0, stateless.length);
+            stateless = ts;
+        }
+        State s = ts[d];
+        if (s == null)
+            s = ts[d] = new State();
+        s.pc = pc;
+        s.self = self;
+        stateStack[d] = s;
+        isPausing = true;
+    }
+
     private State[] ensureSize(int newsize) {
 //        System.out.println("ENSURE SIZE = " + newsize);
         State[] newStack = new State[newsize];
@@ -380,6 +531,159 @@ public final class Fiber {
     void clearPausing() {
         isPausing = false;
     }
+
+    boolean hasFrames() {
+        return stateStack[0] != null;
+    }
+
+    /** drop the states of a paused fiber whose frames have been written to the image */
+    void hibernate(Hibernator.Image image) {
+        Arrays.fill(stateStack, null);
+        if (stateStack.length > initialDepth)
+            stateStack = new State[initialDepth];
+        spares = null;
+        stateless = null;
+        curState = null;
+        this.image = image;
+    }
+
+    /** bring back the states of a hibernated fiber, by the thread that is about to run it */
+    void thaw() {
+        Hibernator.Image img = image;
+        image = null;
+        img.hibernator.thaw(this,img);
+    }
+
+    /*
+     * the tags that precede each frame written by write(), a generated state class is named the first
+     * time it's seen and referred to by index after that
+     */
+    private static final int TAG_PAUSE = 0, TAG_PLAIN = 1, TAG_NAMED = 2, TAG_INDEXED = 3;
+
+    /**
+     * the fields of a state class in the order that they're written, by name, ie f0, f1 ... for the generated
+     * classes, and including those of the hand-written states, eg Task.ArgState
+     */
+    private static final ClassValue<Field[]> stateFields = new ClassValue<Field[]>() {
+        protected Field[] computeValue(Class<?> klass) {
+            ArrayList<Field> fs = new ArrayList<>();
+            for (Field f : klass.getDeclaredFields())
+                if (!Modifier.isStatic(f.getModifiers())) {
+                    f.setAccessible(true);
+                    fs.add(f);
+                }
+            fs.sort(Comparator.comparing(Field::getName));
+            return fs.toArray(new Field[fs.size()]);
+        }
+    };
+
+    private static final ClassValue<Constructor<?>> stateInits = new ClassValue<Constructor<?>>() {
+        protected Constructor<?> computeValue(Class<?> klass) {
+            try {
+                Constructor<?> init = klass.getDeclaredConstructor();
+                init.setAccessible(true);
+                return init;
+            }
+            catch (NoSuchMethodException ex) { return null; }
+        }
+    };
+
+    /**
+     * write the frames of a paused fiber, ie the states saved by the last pause from the outermost frame
+     * in, with the objects that they refer to going through out.writeObject
+     */
+    void write(ObjectOutput out) throws IOException {
+        if (iStack != -1)
+            throw new IllegalStateException("fiber is running, iStack = " + iStack);
+        State[] stack = stateStack;
+        int num = 0;
+        while (num < stack.length && stack[num] != null)
+            num++;
+        out.writeInt(num);
+        HashMap<Class<?>,Integer> names = new HashMap<>();
+        for (int d = 0; d < num; d++) {
+            State s = stack[d];
+            Class<?> klass = s.getClass();
+            if (s == PAUSE_STATE) {
+                out.writeByte(TAG_PAUSE);
+                continue;
+            }
+            Integer index = names.get(klass);
+            if (klass == State.class)
+                out.writeByte(TAG_PLAIN);
+            else if (index != null) {
+                out.writeByte(TAG_INDEXED);
+                out.writeShort(index);
+            }
+            else {
+                out.writeByte(TAG_NAMED);
+                out.writeUTF(klass.getName());
+                names.put(klass,names.size());
+            }
+            out.writeInt(s.pc);
+            out.writeObject(s.self);
+            if (klass == State.class)
+                continue;
+            try {
+                for (Field f : stateFields.get(klass)) {
+                    Class<?> type = f.getType();
+                    if      (type == int.class)    out.writeInt(f.getInt(s));
+                    else if (type == long.class)   out.writeLong(f.getLong(s));
+                    else if (type == double.class) out.writeDouble(f.getDouble(s));
+                    else if (type == float.class)  out.writeFloat(f.getFloat(s));
+                    else                           out.writeObject(f.get(s));
+                }
+            }
+            catch (IllegalAccessException ex) { throw new IOException(ex); }
+        }
+    }
+
+    /**
+     * read the frames written by write() into this fiber, which must be fresh, resolving the generated
+     * state classes with loader. the task resumes from the innermost frame the next time it runs
+     */
+    void read(ObjectInput in,ClassLoader loader) throws IOException, ClassNotFoundException {
+        int num = in.readInt();
+        if (num < 0)
+            throw new StreamCorruptedException("frames: " + num);
+        if (num > stateStack.length)
+            ensureSize(num);
+        ArrayList<Class<?>> names = new ArrayList<>();
+        for (int d = 0; d < num; d++) {
+            int tag = in.readByte();
+            Class<?> klass;
+            if      (tag == TAG_PAUSE)   { stateStack[d] = PAUSE_STATE; continue; }
+            else if (tag == TAG_PLAIN)   klass = State.class;
+            else if (tag == TAG_INDEXED) klass = names.get(in.readShort());
+            else if (tag == TAG_NAMED) {
+                klass = Class.forName(in.readUTF(),true,loader);
+                if (!State.class.isAssignableFrom(klass))
+                    throw new StreamCorruptedException("not a state class: " + klass.getName());
+                names.add(klass);
+            }
+            else throw new StreamCorruptedException("frame tag: " + tag);
+            State s;
+            try {
+                Constructor<?> init = stateInits.get(klass);
+                if (init == null)
+                    throw new InvalidClassException(klass.getName(),"no default constructor");
+                s = (State) init.newInstance();
+                s.pc = in.readInt();
+                s.self = in.readObject();
+                if (klass != State.class)
+                    for (Field f : stateFields.get(klass)) {
+                        Class<?> type = f.getType();
+                        if      (type == int.class)    f.setInt(s,in.readInt());
+                        else if (type == long.class)   f.setLong(s,in.readLong());
+                        else if (type == double.class) f.setDouble(s,in.readDouble());
+                        else if (type == float.class)  f.setFloat(s,in.readFloat());
+                        else                           f.set(s,in.readObject());
+                    }
+            }
+            catch (ReflectiveOperationException ex) { throw new IOException(ex); }
+            stateStack[d] = s;
+        }
+    }
     public interface Worker {
         public void execute() throws Pausable, Exception;
         public void execute(kilim.Fiber fiber) throws Exception;
@@ -0,0 +1,45 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a named, weighted scheduling group, eg a tenant. tasks join a group with Task.setGroup, and a scheduler
+ * that uses FairQueue shares each worker between the groups with backlogged tasks in proportion to weight
+ *
+ * the run time of the group's slices is accumulated by the workers of every scheduler and can be read at any
+ * time, but only the default (affine) scheduler with a FairQueue uses the weight
+ */
+public class Group {
+    public final String name;
+    public final int weight;
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong slices = new AtomicLong();
+
+    /**
+     * @param name the name, for display only
+     * @param weight the relative share of a worker that the group gets when it's backlogged, at least 1
+     */
+    public Group(String name,int weight) {
+        if (weight < 1)
+            throw new IllegalArgumentException("weight: " + weight);
+        this.name = name;
+        this.weight = weight;
+    }
+
+    void charge(long duration) {
+        nanos.addAndGet(duration);
+        slices.incrementAndGet();
+    }
+
+    /** the total run time of the group's slices, in nanoseconds */
+    public long runNanos() { return nanos.get(); }
+
+    /** the number of slices of the group's tasks that have run */
+    public long slices() { return slices.get(); }
+
+    public String toString() {
+        return "Group(" + name + ",weight=" + weight + ",slices=" + slices() + ",nanos=" + runNanos() + ")";
+    }
+}
@@ -0,0 +1,304 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * moves the frames of idle paused tasks out of the heap, eg sessions that wait on a mailbox for long
+ * periods. a task that is added and then runs no slice for a full period, ie between idle and twice idle,
+ * has its fiber's states encoded into an off-heap store, either direct buffers or a memory-mapped file,
+ * leaving the task itself and a small image on the heap. the next time the task is resumed, eg by a
+ * message arriving in its mailbox, the states are decoded by the worker before the slice runs.
+ *
+ * the objects that the states refer to, eg the mailbox or the task itself, stay on the heap in a single
+ * array per task, so identity is preserved and nothing needs to be serializable. only the tasks that
+ * have been added are considered, and tasks that exit are dropped at the next sweep
+ */
+public class Hibernator {
+    /** the duration of a sweep period, in nanoseconds */
+    public final long idle;
+    private final Store store;
+    private final ConcurrentLinkedQueue<Task> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong hibernated = new AtomicLong(), thawed = new AtomicLong();
+    private final Thread sweeper;
+    private volatile boolean closed;
+
+    /* the tasks being watched and the slice count at the previous sweep, owned by sweep */
+    private Task [] tasks = new Task[64];
+    private int [] seen = new int[64];
+    private int num;
+
+    /**
+     * hibernate to direct buffers
+     * @param idle the sweep period, in milliseconds, or 0 for no sweeper thread, ie only explicit calls to sweep
+     */
+    public Hibernator(long idle) throws IOException {
+        this(idle,null);
+    }
+
+    /**
+     * @param idle the sweep period, in milliseconds, or 0 for no sweeper thread, ie only explicit calls to sweep
+     * @param file the file to map the store from, or null for direct buffers. the file is overwritten
+     */
+    public Hibernator(long idle,File file) throws IOException {
+        this.idle = TimeUnit.MILLISECONDS.toNanos(idle);
+        store = new Store(1 << 20,file);
+        if (idle > 0) {
+            sweeper = new Thread(this::watch,"KilimHibernator");
+            sweeper.setDaemon(true);
+            sweeper.start();
+        }
+        else
+            sweeper = null;
+    }
+
+    /** watch a task, which is hibernated by a sweep that finds it paused and without a slice since the last one */
+    public void add(Task task) {
+        pending.add(task);
+    }
+
+    /** the number of tasks that have been hibernated */
+    public long hibernated() { return hibernated.get(); }
+
+    /** the number of hibernated tasks that have been brought back */
+    public long thawed() { return thawed.get(); }
+
+    /** the bytes held by the store for the tasks that are currently hibernated */
+    public long bytes() { return store.live(); }
+
+    /** stop the sweeper and release the file, tasks that are still hibernated remain readable till they thaw */
+    public void close() throws IOException {
+        closed = true;
+        if (sweeper != null)
+            sweeper.interrupt();
+        store.close();
+    }
+
+    private void watch() {
+        while (!closed) {
+            try { TimeUnit.NANOSECONDS.sleep(idle); }
+            catch (InterruptedException ex) { continue; }
+            try { sweep(); }
+            catch (Throwable ex) { ex.printStackTrace(); }
+        }
+    }
+
+    /**
+     * hibernate each watched task that is paused and hasn't run a slice since the previous sweep,
+     * called periodically by the sweeper thread
+     * @return the number of tasks hibernated
+     */
+    public synchronized int sweep() {
+        int count = 0, kept = 0;
+        for (int ii=0; ii < num; ii++) {
+            Task task = tasks[ii];
+            if (task.done)
+                continue;
+            int slices = task.fiber.slices;
+            if (slices==seen[ii] && task.fiber.image==null && hibernate(task))
+                count++;
+            tasks[kept] = task;
+            seen[kept++] = slices;
+        }
+        Arrays.fill(tasks,kept,num,null);
+        num = kept;
+        for (Task task; (task = pending.poll()) != null; ) {
+            if (num==tasks.length) {
+                tasks = Arrays.copyOf(tasks,2*num);
+                seen = Arrays.copyOf(seen,2*num);
+            }
+            tasks[num] = task;
+            seen[num++] = task.fiber.slices;
+        }
+        return count;
+    }
+
+    /**
+     * hibernate a task now if it is paused, ie has saved frames and isn't running, done or pinned to a thread
+     * @return true if the task was hibernated
+     */
+    public boolean hibernate(Task task) {
+        Fiber fiber = task.fiber;
+        if (task.done || fiber.image != null || !task.claim())
+            return false;
+        try {
+            if (task.numActivePins > 0 || !fiber.hasFrames())
+                return false;
+            Frames out = new Frames();
+            fiber.write(out);
+            Image image = store.put(out.bytes.toByteArray());
+            image.hibernator = this;
+            image.refs = out.refs.toArray();
+            fiber.hibernate(image);
+            hibernated.incrementAndGet();
+            return true;
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
+            return false;
+        }
+        finally {
+            PauseReason pr = task.pauseReason;
+            task.running = 0;
+            if (pr != null && !pr.isValid(task))
+                task.resume();
+        }
+    }
+
+    /** restore the frames of a hibernated fiber, called by the task's worker before the slice runs */
+    void thaw(Fiber fiber,Image image) {
+        byte [] bytes = store.get(image);
+        try {
+            fiber.read(new FramesIn(bytes,image.refs),fiber.task.getClass().getClassLoader());
+        }
+        catch (IOException | ClassNotFoundException ex) {
+            throw new IllegalStateException("kilim: unable to thaw task " + fiber.task.id,ex);
+        }
+        store.free(image);
+        thawed.incrementAndGet();
+    }
+
+    /** the stub left in a hibernated fiber, the location of its frames in the store and the objects they refer to */
+    static final class Image {
+        Hibernator hibernator;
+        Object [] refs;
+        final Chunk chunk;
+        final int offset, length;
+
+        Image(Chunk chunk,int offset,int length) {
+            this.chunk = chunk;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** the frames in binary, with each object replaced by its index in refs */
+    private static final class Frames extends DataOutputStream implements ObjectOutput {
+        final ArrayList<Object> refs = new ArrayList<>();
+        final ByteArrayOutputStream bytes;
+
+        Frames() { this(new ByteArrayOutputStream(256)); }
+        private Frames(ByteArrayOutputStream bytes) {
+            super(bytes);
+            this.bytes = bytes;
+        }
+
+        public void writeObject(Object obj) throws IOException {
+            if (obj==null)
+                writeInt(-1);
+            else {
+                writeInt(refs.size());
+                refs.add(obj);
+            }
+        }
+    }
+
+    private static final class FramesIn extends DataInputStream implements ObjectInput {
+        final Object [] refs;
+
+        FramesIn(byte [] bytes,Object [] refs) {
+            super(new ByteArrayInputStream(bytes));
+            this.refs = refs;
+        }
+
+        public Object readObject() throws IOException {
+            int index = readInt();
+            return index < 0 ? null : refs[index];
+        }
+    }
+
+    static final class Chunk {
+        final ByteBuffer buf;
+        int top, live;
+        Chunk(ByteBuffer buf) { this.buf = buf; }
+    }
+
+    /**
+     * bump allocation in fixed size chunks, either direct or mapped from a file. a chunk is reused once all
+     * the images in it have been freed, and an image larger than a chunk gets a chunk of its own
+     */
+    static final class Store {
+        final int size;
+        final RandomAccessFile file;
+        final FileChannel channel;
+        final ArrayDeque<Chunk> spare = new ArrayDeque<>();
+        Chunk current;
+        long mapped, live;
+
+        Store(int size,File path) throws IOException {
+            this.size = size;
+            file = path==null ? null : new RandomAccessFile(path,"rw");
+            channel = file==null ? null : file.getChannel();
+        }
+
+        private Chunk allocate(int len) throws IOException {
+            if (len==size && !spare.isEmpty())
+                return spare.pop();
+            if (channel==null)
+                return new Chunk(ByteBuffer.allocateDirect(len));
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE,mapped,len);
+            mapped += len;
+            return new Chunk(buf);
+        }
+
+        synchronized Image put(byte [] bytes) throws IOException {
+            int len = bytes.length;
+            Chunk chunk = current;
+            if (len > size)
+                chunk = allocate(len);
+            else if (chunk==null || chunk.top + len > size)
+                chunk = current = allocate(size);
+            Image image = new Image(chunk,chunk.top,len);
+            ByteBuffer buf = chunk.buf.duplicate();
+            buf.position(chunk.top);
+            buf.put(bytes);
+            chunk.top += len;
+            chunk.live += len;
+            live += len;
+            return image;
+        }
+
+        synchronized byte [] get(Image image) {
+            byte [] bytes = new byte[image.length];
+            ByteBuffer buf = image.chunk.buf.duplicate();
+            buf.position(image.offset);
+            buf.get(bytes);
+            return bytes;
+        }
+
+        synchronized void free(Image image) {
+            Chunk chunk = image.chunk;
+            chunk.live -= image.length;
+            live -= image.length;
+            if (chunk.live==0) {
+                chunk.top = 0;
+                if (chunk != current && chunk.buf.capacity()==size)
+                    spare.push(chunk);
+            }
+        }
+
+        synchronized long live() { return live; }
+
+        synchronized void close() throws IOException {
+            if (file != null)
+                file.close();
+        }
+    }
+}
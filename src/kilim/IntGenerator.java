@@ -0,0 +1,43 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * a Generator specialized for int values, an iterator driven by a pausable execute method that yields
+ * each value with yield(int). the value is held in a field of the generator rather than boxed, so a
+ * yield allocates nothing and every int is a valid value. next() is inherited from PrimitiveIterator.OfInt
+ * and boxes, so use nextInt() or forEachRemaining(IntConsumer) in place of it. the frames that pause
+ * still save a state each, which is reused when woven with KilimContext.reuseState (the weaver's -r)
+ * @see Generator
+ */
+public class IntGenerator extends Continuation implements PrimitiveIterator.OfInt, Iterable<Integer> {
+    int nextVal;
+    boolean hasVal;
+    boolean done = false;
+
+    public boolean hasNext() {
+        if (!hasVal && !done)
+            done = run();
+        return hasVal;
+    }
+
+    public int nextInt() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        hasVal = false;
+        return nextVal;
+    }
+
+    public PrimitiveIterator.OfInt iterator() {
+        return this;
+    }
+
+    public void yield(int val) throws Pausable {
+        nextVal = val;
+        hasVal = true;
+        Fiber.yield();
+    }
+}
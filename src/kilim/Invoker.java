@@ -0,0 +1,121 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a pausable method called dynamically, eg by a dispatcher that picks a handler per request. the woven
+ * overload, ie with the trailing Fiber, is found and unreflected once and adapted to a single generic
+ * shape, so a call is a spread of the arguments and an invokeExact, without the lookup and the
+ * Method.invoke of Task.invoke. keep the invoker for a call site, eg in a field or a map keyed by the
+ * request type, or use of(Method), which caches an invoker per method.
+ * <pre>
+ *   Invoker inv = Invoker.of(Handler.class.getMethod("handle",Request.class));
+ *   ...
+ *   Object reply = inv.invoke(handler,request); // from pausable code
+ * </pre>
+ * unlike Method.invoke, an exception thrown by the method propagates as is, not wrapped
+ */
+public final class Invoker {
+    private static final ConcurrentHashMap<Method,Invoker> cache = new ConcurrentHashMap<>();
+
+    /** the method, as supplied */
+    public final Method method;
+    /** (Object target, Fiber fiber, Object [] args) Object */
+    private final MethodHandle handle;
+    private final int numArgs;
+
+    private Invoker(Method method) {
+        this.method = method;
+        Method woven = Task.getWovenMethod(method);
+        numArgs = woven.getParameterCount() - 1;
+        woven.setAccessible(true);
+        MethodHandle mh;
+        try { mh = MethodHandles.lookup().unreflect(woven); }
+        catch (IllegalAccessException ex) { throw new IllegalArgumentException(ex); }
+        if (Modifier.isStatic(woven.getModifiers()))
+            mh = MethodHandles.dropArguments(mh,0,Object.class);
+        // (Object,Object...,Fiber)Object, boxing the primitives and null for void
+        MethodType generic = MethodType.genericMethodType(numArgs + 1).appendParameterTypes(Fiber.class);
+        mh = mh.asType(generic);
+        // move the fiber ahead of the args, which are then spread from an array
+        MethodType moved = MethodType.genericMethodType(numArgs + 1).insertParameterTypes(1,Fiber.class);
+        int [] reorder = new int[numArgs + 2];
+        for (int ii=1; ii <= numArgs; ii++)
+            reorder[ii] = ii + 1;
+        reorder[numArgs + 1] = 1;
+        mh = MethodHandles.permuteArguments(mh,moved,reorder);
+        handle = mh.asSpreader(Object[].class,numArgs);
+    }
+
+    /** the invoker for a pausable method, or for the woven overload itself, created once per method */
+    public static Invoker of(Method method) {
+        Invoker inv = cache.get(method);
+        return inv==null ? cache.computeIfAbsent(method,Invoker::new) : inv;
+    }
+
+    /** the invoker for the pausable method declared by klass with the given name and parameter types */
+    public static Invoker of(Class<?> klass,String name,Class<?>... types) throws NoSuchMethodException {
+        return of(klass.getDeclaredMethod(name,types));
+    }
+
+    /** the number of arguments that the method takes, not counting the target or the fiber */
+    public int numArgs() {
+        return numArgs;
+    }
+
+    /**
+     * call the method on target, or null if it's static, with args boxed as for Method.invoke.
+     * primitive results are boxed and a void method returns null
+     */
+    public Object invoke(Object target,Object... args) throws Pausable, Exception {
+        Task.errNotWoven();
+        return null;
+    }
+
+    static class ArgState extends State {
+        Object   obj;
+        Object[] args;
+    }
+
+    public Object invoke(Object target,Object [] args,Fiber f) throws Exception {
+        if (f.pc != 0) {
+            // resuming from a previous pause
+            ArgState as = (ArgState) f.getState();
+            target = as.obj;
+            args = as.args;
+        }
+        Object ret;
+        f.down();
+        try {
+            ret = (Object) handle.invokeExact(target,f,args);
+        }
+        catch (Exception | Error ex) { throw ex; }
+        catch (Throwable ex) { throw new UndeclaredThrowableException(ex); }
+        switch (f.up()) {
+            case Fiber.PAUSING__NO_STATE:
+                ArgState as = new ArgState();
+                as.obj = target;
+                as.args = args;
+                as.self = this;
+                as.pc = 1;
+                f.setState(as);
+                return null;
+            case Fiber.PAUSING__HAS_STATE:
+                return null;
+            default:
+                return ret;
+        }
+    }
+
+    public String toString() {
+        return "Invoker(" + method + ")";
+    }
+}
@@ -0,0 +1,43 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * a Generator specialized for long values, an iterator driven by a pausable execute method that yields
+ * each value with yield(long). the value is held in a field of the generator rather than boxed, so a
+ * yield allocates nothing and every long is a valid value. next() is inherited from PrimitiveIterator.OfLong
+ * and boxes, so use nextLong() or forEachRemaining(LongConsumer) in place of it. the frames that pause
+ * still save a state each, which is reused when woven with KilimContext.reuseState (the weaver's -r)
+ * @see Generator
+ */
+public class LongGenerator extends Continuation implements PrimitiveIterator.OfLong, Iterable<Long> {
+    long nextVal;
+    boolean hasVal;
+    boolean done = false;
+
+    public boolean hasNext() {
+        if (!hasVal && !done)
+            done = run();
+        return hasVal;
+    }
+
+    public long nextLong() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        hasVal = false;
+        return nextVal;
+    }
+
+    public PrimitiveIterator.OfLong iterator() {
+        return this;
+    }
+
+    public void yield(long val) throws Pausable {
+        nextVal = val;
+        hasVal = true;
+        Fiber.yield();
+    }
+}
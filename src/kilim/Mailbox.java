@@ -186,7 +186,7 @@ public class Mailbox<T> implements PauseReason, EventPublisher {
         long begin = System.currentTimeMillis();
         long time = timeoutMillis;
         while (msg == null) {
-            t.timer_new.setTimer(time);
+            t.timer().setTimer(time);
             t.scheduler.scheduleTimer(t.timer_new);
             Task.pause(this);
             t.timer_new.cancel();
@@ -452,7 +452,7 @@ public class Mailbox<T> implements PauseReason, EventPublisher {
         long begin = System.currentTimeMillis();
         long time = timeoutMillis;
         while (!put(msg, t)) {
-        	t.timer_new.setTimer(time);
+        	t.timer().setTimer(time);
             t.scheduler.scheduleTimer(t.timer_new);
             Task.pause(this);
             t.timer_new.cancel();
@@ -159,7 +159,7 @@ public class MailboxMPSC<T> extends MPSCQueue<T> implements PauseReason, EventPu
 		long begin = System.currentTimeMillis();
 		long time = timeoutMillis;
 		while (msg == null) {
-			t.timer_new.setTimer(time);
+			t.timer().setTimer(time);
 			t.scheduler.scheduleTimer(t.timer_new);
 			Task.pause(this);
 			t.timer_new.cancel();
@@ -372,7 +372,7 @@ public class MailboxMPSC<T> extends MPSCQueue<T> implements PauseReason, EventPu
 		long begin = System.currentTimeMillis();
 		long time = timeoutMillis;
 		while (!put(msg, t)) {
-			t.timer_new.setTimer(time);
+			t.timer().setTimer(time);
 			t.scheduler.scheduleTimer(t.timer_new);
 			Task.pause(this);
 			t.timer_new.cancel();
@@ -220,7 +220,7 @@ public class MailboxSPSC<T> extends SPSCQueue<T> implements PauseReason,
 		long begin = System.currentTimeMillis();
 		long time = timeoutMillis;
 		while (msg == null) {
-			t.timer_new.setTimer(time);
+			t.timer().setTimer(time);
 			t.scheduler.scheduleTimer(t.timer_new);
 			Task.pause(this);
 			t.timer_new.cancel();
@@ -437,7 +437,7 @@ public class MailboxSPSC<T> extends SPSCQueue<T> implements PauseReason,
 		long begin = System.currentTimeMillis();
 		long time = timeoutMillis;
 		while (!put(msg, t)) {
-			t.timer_new.setTimer(time);
+			t.timer().setTimer(time);
 			t.scheduler.scheduleTimer(t.timer_new);
 			Task.pause(this);
 			t.timer_new.cancel();
@@ -0,0 +1,136 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a bounded, elastic pool of plain threads for blocking calls made from pausable code, see Task.blocking
+ * the calling task pauses while the call runs on an offload thread, and is resumed on its scheduler
+ * with the result or the exception, so a blocking api only ties up an offload thread instead of a worker
+ *
+ * threads are started on demand up to maxThreads and retire after keepAlive seconds idle,
+ * then calls queue up to queueSize. once the queue is full a call runs inline on the worker,
+ * ie the pool applies back pressure rather than failing
+ *
+ * configure the default pool with kilim.Offload.maxThreads (default 64), kilim.Offload.queueSize (1024)
+ * and kilim.Offload.keepAlive (60)
+ */
+public class Offload {
+    private static volatile Offload defaultOffload;
+
+    private final ThreadPoolExecutor pool;
+    private final LinkedBlockingQueue<Runnable> queue;
+    private final AtomicInteger index = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong(), inlined = new AtomicLong();
+
+    /**
+     * @param maxThreads the most threads that will run blocking calls at once
+     * @param queueSize the most calls that will wait for a thread before calls run inline
+     * @param keepAlive the time in seconds that an idle thread is kept
+     */
+    public Offload(int maxThreads,int queueSize,long keepAlive) {
+        queue = new LinkedBlockingQueue<>(queueSize);
+        pool = new ThreadPoolExecutor(maxThreads,maxThreads,keepAlive,TimeUnit.SECONDS,queue,
+                runnable -> {
+                    Thread thread = new Thread(runnable,"KilimOffload:" + index.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized Offload getDefault() {
+        if (defaultOffload==null)
+            defaultOffload = new Offload(
+                    Integer.getInteger("kilim.Offload.maxThreads",64),
+                    Integer.getInteger("kilim.Offload.queueSize",1024),
+                    Long.getLong("kilim.Offload.keepAlive",60));
+        return defaultOffload;
+    }
+
+    public static void setDefault(Offload offload) {
+        defaultOffload = offload;
+    }
+
+    /** the number of calls waiting for a thread */
+    public int queued() { return queue.size(); }
+    /** the largest number of calls that have been waiting for a thread at once */
+    public int peakQueued() { return peak.get(); }
+    /** the number of threads running a call */
+    public int active() { return pool.getActiveCount(); }
+    /** the number of threads in the pool */
+    public int threads() { return pool.getPoolSize(); }
+    /** the number of calls handed to the pool */
+    public long submitted() { return submitted.get(); }
+    /** the number of calls that ran inline because the pool was saturated */
+    public long inlined() { return inlined.get(); }
+
+    /**
+     * run body on an offload thread, pausing the calling task till it completes
+     * @return the value returned by body
+     * @throws Exception the exception thrown by body
+     */
+    public <TT> TT call(Callable<TT> body) throws Pausable, Exception {
+        Task task = Task.getCurrentTask();
+        Scheduler scheduler = task.getScheduler();
+        Cell<Result<TT>> cell = new Cell<>();
+        Result<TT> job = new Result<>(body,cell,scheduler);
+        scheduler.blocked.incrementAndGet();
+        try {
+            pool.execute(job);
+        }
+        catch (RejectedExecutionException ex) {
+            scheduler.blocked.decrementAndGet();
+            inlined.incrementAndGet();
+            return body.call();
+        }
+        submitted.incrementAndGet();
+        int depth = queue.size();
+        for (int prev; depth > (prev = peak.get()) && !peak.compareAndSet(prev,depth); ) {}
+        return cell.get().get();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /** the call, run on an offload thread, and its outcome */
+    static class Result<TT> implements Runnable {
+        final Callable<TT> body;
+        final Cell<Result<TT>> cell;
+        final Scheduler scheduler;
+        TT value;
+        Throwable error;
+
+        Result(Callable<TT> body,Cell<Result<TT>> cell,Scheduler scheduler) {
+            this.body = body;
+            this.cell = cell;
+            this.scheduler = scheduler;
+        }
+
+        /** the value, or the error rethrown, with a throwable that's neither an Exception nor an Error wrapped */
+        TT get() throws Exception {
+            if (error instanceof Error) throw (Error) error;
+            if (error instanceof Exception) throw (Exception) error;
+            if (error != null) throw new UndeclaredThrowableException(error);
+            return value;
+        }
+
+        public void run() {
+            try { value = body.call(); }
+            catch (Throwable ex) { error = ex; }
+            // resuming the task makes the scheduler busy before it stops counting the call
+            cell.putnb(this);
+            scheduler.blocked.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * what a scheduler does with a runnable task when the run queue of the worker that it was dispatched to is full,
+ * see Scheduler.setOverflow. none of the policies block the caller, so eg a selector thread that resumes
+ * a task can't deadlock against a busy pool, and each counts how often it's used so queues can be sized from data
+ *
+ * SPILL (the default) parks the task on an unbounded list that the worker moves back into its queue as room
+ * frees up. REDIRECT hands the task to the least loaded worker that has room. INLINE runs the slice in
+ * the calling thread, ie the producer pays for its own burst. the slice is stacked on the caller: when the
+ * caller is itself a task, eg one whose Mailbox.put resumed the task, the resumed slice runs to its next pause
+ * nested in the caller's slice, on its thread and stack, and the put returns only after that.
+ * REJECT hands the task to a callback, and the task stays runnable (ie it isn't resumed again) till the
+ * callback schedules it or drops it. without a callback the caller gets a RejectedExecutionException and
+ * the task is left paused, ie it can be resumed again
+ *
+ * pinned and keyed tasks must run on their worker, so REDIRECT and INLINE spill them instead, as they do when
+ * there's no room elsewhere or the caller is already running an inline slice.
+ * INLINE shouldn't be used with tasks that take locks, since the slice runs on a thread the task isn't pinned to
+ *
+ * select with -Dkilim.Scheduler.overflow=spill, redirect, inline or reject
+ */
+public class Overflow {
+    public enum Policy { SPILL, REDIRECT, INLINE, REJECT }
+
+    public final Policy policy;
+    private final Consumer<Task> rejector;
+    private final AtomicLong spilled = new AtomicLong(), redirected = new AtomicLong();
+    private final AtomicLong inlined = new AtomicLong(), rejected = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+
+    public Overflow(Policy policy) {
+        this(policy,null);
+    }
+
+    /**
+     * @param policy the policy
+     * @param rejector the callback for REJECT, which by default releases the task's claim, so that a later
+     *        resume schedules it, and throws RejectedExecutionException at the caller
+     */
+    public Overflow(Policy policy,Consumer<Task> rejector) {
+        this.policy = policy;
+        this.rejector = rejector;
+    }
+
+    /** the number of tasks that were spilled, including those that another policy couldn't handle */
+    public long spilled() { return spilled.get(); }
+    public long redirected() { return redirected.get(); }
+    public long inlined() { return inlined.get(); }
+    public long rejected() { return rejected.get(); }
+    /** the most tasks that have been spilled by a single worker at once */
+    public long peakSpill() { return peak.get(); }
+
+    void spill(int depth) {
+        spilled.incrementAndGet();
+        for (long prev; depth > (prev = peak.get()) && !peak.compareAndSet(prev,depth); ) {}
+    }
+
+    void redirect() { redirected.incrementAndGet(); }
+
+    void inline() { inlined.incrementAndGet(); }
+
+    void reject(Task task) {
+        rejected.incrementAndGet();
+        if (rejector==null) {
+            // nothing holds the task, so it mustn't stay claimed or it could never be resumed
+            task.running = 0;
+            throw new RejectedExecutionException("run queue full: " + task);
+        }
+        rejector.accept(task);
+    }
+
+    public String toString() {
+        return "Overflow(" + policy + ",spilled=" + spilled() + ",peak=" + peakSpill() + ",redirected="
+                + redirected() + ",inlined=" + inlined() + ",rejected=" + rejected() + ")";
+    }
+
+    /**
+     * create a policy by name
+     * @param name "redirect", "inline", "reject" or "spill" (the default)
+     */
+    public static Overflow make(String name) {
+        switch (name) {
+            case "redirect": return new Overflow(Policy.REDIRECT);
+            case "inline":   return new Overflow(Policy.INLINE);
+            case "reject":   return new Overflow(Policy.REJECT);
+            default:         return new Overflow(Policy.SPILL);
+        }
+    }
+}
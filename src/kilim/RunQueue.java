@@ -0,0 +1,92 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * a bounded, multi-level run queue for an AffineThreadPool executor, see Scheduler(int,int,int)
+ * each slice is queued at the level of its task's priority (see Task.setPriority) and the highest non-empty
+ * level is served first. to prevent starvation, each time a non-empty level is passed over it ages, and once
+ * it has been passed over aging times its head is served next
+ *
+ * runnables that aren't task slices, eg the timer watchdog, are queued at the top level
+ */
+public class RunQueue extends SliceQueue {
+    private final ConcurrentLinkedQueue<Runnable> [] levels;
+    private final int [] skips;
+    private final int aging;
+
+    /**
+     * @param levels the number of levels
+     * @param capacity the most runnables that can be queued
+     * @param aging the number of times a non-empty level can be passed over before it's served
+     */
+    public RunQueue(int levels,int capacity,int aging) {
+        super(capacity);
+        this.levels = new ConcurrentLinkedQueue[levels];
+        for (int ii=0; ii < levels; ii++)
+            this.levels[ii] = new ConcurrentLinkedQueue<>();
+        skips = new int[levels];
+        this.aging = aging;
+    }
+
+    private int level(Runnable runnable) {
+        int priority = runnable instanceof Slice ? ((Slice) runnable).priority : Integer.MAX_VALUE;
+        return Math.max(0,Math.min(levels.length-1,priority));
+    }
+
+    /** the number of runnables queued at a level */
+    public int size(int level) { return levels[level].size(); }
+
+    void enqueue(Runnable runnable) {
+        levels[level(runnable)].offer(runnable);
+    }
+
+    Runnable dequeue() {
+        int top = -1;
+        for (int ii=levels.length-1; ii >= 0; ii--) {
+            if (levels[ii].isEmpty()) {
+                skips[ii] = 0;
+                continue;
+            }
+            if (top < 0)
+                top = ii;
+            else if (skips[ii] >= aging) {
+                top = ii;
+                break;
+            }
+        }
+        if (top < 0) return null;
+        Runnable runnable = levels[top].poll();
+        if (runnable==null) return null;
+        skips[top] = 0;
+        for (int ii=top-1; ii >= 0; ii--)
+            if (!levels[ii].isEmpty())
+                skips[ii]++;
+        return runnable;
+    }
+
+    public Runnable peek() {
+        for (int ii=levels.length-1; ii >= 0; ii--) {
+            Runnable runnable = levels[ii].peek();
+            if (runnable != null)
+                return runnable;
+        }
+        return null;
+    }
+
+    boolean delete(Object obj) {
+        for (ConcurrentLinkedQueue<Runnable> level : levels)
+            if (level.remove(obj))
+                return true;
+        return false;
+    }
+
+    /** highest level first */
+    void collect(Collection<Runnable> dst) {
+        for (int ii=levels.length-1; ii >= 0; ii--)
+            dst.addAll(levels[ii]);
+    }
+}
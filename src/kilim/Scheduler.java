@@ -5,11 +5,17 @@
  */
 package kilim;
 
+import com.conversantmedia.util.concurrent.DisruptorBlockingQueue;
+import kilim.concurrent.IdleLatch;
 import kilim.nio.NioSelectorScheduler.RegistrationTask;
 import kilim.timerservice.Timer;
 import kilim.timerservice.TimerService;
 
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 /**
  * This is a basic FIFO Executor. It maintains a list of runnable tasks and hands them out to WorkerThreads. Note
@@ -19,20 +25,50 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *
  */
 public class Scheduler {
-    private static final int defaultQueueSize_ =
-            64 * 1024;
+    /** the capacity of each worker's run queue for new schedulers, see Overflow for what happens when it's full */
+    public static int defaultQueueSize = Integer.getInteger("kilim.Scheduler.queueSize",64 * 1024);
             //Integer.MAX_VALUE; //<- LinkedBlockingQueue
 
     public static volatile Scheduler defaultScheduler = null;
     public static int defaultNumberThreads;
+    /** the kind of scheduler created by make(), "affine" (the default), "stealing", "elastic", "sharded" or "virtual" */
+    public static String defaultType;
+    /** the dispatch policy for new schedulers, "roundrobin" (the default) or "saturate" */
+    public static String defaultDispatch;
+    /** the overflow policy for new schedulers, "spill" (the default), "redirect", "inline" or "reject" */
+    public static String defaultOverflow = System.getProperty("kilim.Scheduler.overflow","spill");
+    /** whether new schedulers use a run-next slot, see setRunNext */
+    public static boolean defaultRunNext = Boolean.getBoolean("kilim.Scheduler.runNext");
+    /** the number of run queue levels for new schedulers, see Task.setPriority */
+    public static int defaultLevels = Integer.getInteger("kilim.Scheduler.levels",1);
+    /** the number of times a non-empty run queue level can be passed over before it's served, see RunQueue */
+    public static int defaultAging = Integer.getInteger("kilim.Scheduler.aging",8);
+    /** whether new schedulers share workers between scheduling groups, see FairQueue */
+    public static boolean defaultFair = Boolean.getBoolean("kilim.Scheduler.fair");
+    /** the credit per visit to a weight 1 group, in nanoseconds, see FairQueue */
+    public static long defaultQuantum = 1000L*Integer.getInteger("kilim.Scheduler.quantum",100);
+    /** the number of affinity buckets per worker */
+    public static int defaultBuckets = Integer.getInteger("kilim.Scheduler.buckets",16);
+    /** the longest that awaitIdle waits for a signal before re-checking, in nanoseconds */
+    static final long maxIdleWait = TimeUnit.MILLISECONDS.toNanos(100);
+    /** the number of tasks in a row that a worker will run from its run-next slot before going back to its queue */
+    static final int runNextLimit = 64;
     private static final ThreadLocal<Task> taskMgr_ = new ThreadLocal<>();
 
     private int numThreads;
     private AffineThreadPool affinePool_;
     protected AtomicBoolean shutdown = new AtomicBoolean(false);
+    protected volatile Dispatch dispatch = Dispatch.make(defaultDispatch);
+    protected volatile boolean runNext = defaultRunNext;
+    protected volatile Overflow overflow = Overflow.make(defaultOverflow);
+    /** the key to worker map, see schedule(Object,Task) */
+    volatile Affinity affinity;
+    private volatile Affinity.Rebalancer rebalancer = new Affinity.Hottest(1.5);
+    /** the number of tasks paused in Task.blocking, which are pending work as far as idleness is concerned */
+    final AtomicInteger blocked = new AtomicInteger();
 
     // Added for new Timer service
-    private TimerService timerService;
+    protected TimerService timerService;
 
     static {
         String s = System.getProperty("kilim.Scheduler.numThreads");
@@ -43,6 +79,8 @@ public class Scheduler {
             }
         if (defaultNumberThreads==0)
             defaultNumberThreads = Math.max(1, Runtime.getRuntime().availableProcessors()-1 /* one spare */);
+        defaultType = System.getProperty("kilim.Scheduler.type","affine");
+        defaultDispatch = System.getProperty("kilim.Scheduler.dispatch","roundrobin");
     }
 
     protected static Task getCurrentTask() {
@@ -57,15 +95,99 @@ public class Scheduler {
     }
 
     public Scheduler(int numThreads) {
-        this(numThreads,defaultQueueSize_);
+        this(numThreads,defaultQueueSize);
     }
 
     public Scheduler(int numThreads,int queueSize) {
+        this(numThreads,queueSize,defaultLevels);
+    }
+
+    /**
+     * create a scheduler that serves tasks by priority, or by group if kilim.Scheduler.fair is set
+     * @param levels the number of run queue levels per worker, with 1 each worker has a single fifo queue
+     * @see Task#setPriority(int)
+     */
+    public Scheduler(int numThreads,int queueSize,int levels) {
+        this(numThreads,index -> queue(queueSize,levels,defaultFair));
+    }
+
+    /**
+     * create a scheduler that shares each worker between scheduling groups, or a fifo scheduler
+     * @param fair if true, weighted fair share between groups, see FairQueue
+     * @see Task#setGroup(Group)
+     */
+    public Scheduler(int numThreads,int queueSize,boolean fair) {
+        this(numThreads,index -> queue(queueSize,1,fair));
+    }
+
+    /**
+     * create a scheduler whose workers use custom run queues
+     * @param queues makes the run queue for each worker, eg a RunQueue or FairQueue
+     */
+    public Scheduler(int numThreads,IntFunction<BlockingQueue<Runnable>> queues) {
         timerService = new TimerService();
-        affinePool_ = new AffineThreadPool(numThreads,queueSize,timerService);
+        affinePool_ = new AffineThreadPool(numThreads,queues,timerService);
+        affinePool_.dispatch = dispatch;
+        affinePool_.runNext = runNext;
+        affinePool_.overflow = overflow;
         this.numThreads = numThreads;
     }
 
+    private static BlockingQueue<Runnable> queue(int queueSize,int levels,boolean fair) {
+        if (fair)       return new FairQueue(queueSize,defaultQuantum);
+        if (levels > 1) return new RunQueue(levels,queueSize,defaultAging);
+        return new DisruptorBlockingQueue(queueSize);
+    }
+
+    /**
+     * set the policy used to pick the worker for unpinned tasks
+     * @see Dispatch
+     */
+    public void setDispatch(Dispatch dispatch) {
+        this.dispatch = dispatch;
+        if (affinePool_!=null) affinePool_.dispatch = dispatch;
+    }
+
+    public Dispatch getDispatch() { return dispatch; }
+
+    /**
+     * enable or disable the run-next slot. when enabled, a task that is resumed by a task running on one of
+     * this scheduler's workers, eg by a Mailbox.put, is run on that worker as soon as the current task yields
+     * instead of being dispatched to another worker, so that ping-pong style exchanges stay on one core.
+     * the slot holds a single task - resuming another displaces the first to the back of the worker's queue.
+     * a worker whose queue shares it between groups (see FairQueue) has no slot, since running the resumed
+     * task out of turn would bypass the group's share, so the task goes to the back of that worker's queue
+     */
+    public void setRunNext(boolean runNext) {
+        this.runNext = runNext;
+        if (affinePool_!=null) affinePool_.runNext = runNext;
+    }
+
+    /**
+     * set the policy for a task whose worker's run queue is full, see Overflow.
+     * only the default scheduler has bounded run queues, the sharded scheduler always spills a full ring to
+     * the shard's inbox (counted as a spill) and the other schedulers never overflow
+     */
+    public void setOverflow(Overflow overflow) {
+        this.overflow = overflow;
+        if (affinePool_!=null) affinePool_.overflow = overflow;
+    }
+
+    public Overflow getOverflow() { return overflow; }
+
+    /**
+     * start timing the slices run by this scheduler's workers, replacing any previous stats, or stop if null.
+     * can be called while the scheduler is running, see SliceStats
+     * @throws UnsupportedOperationException if this scheduler doesn't time its slices, eg VirtualScheduler
+     */
+    public void setSliceStats(SliceStats stats) {
+        if (affinePool_==null)
+            throw new UnsupportedOperationException("slices aren't timed by " + getClass().getName());
+        affinePool_.stats = stats;
+    }
+
+    public SliceStats getSliceStats() { return affinePool_==null ? null : affinePool_.stats; }
+
     public boolean isEmptyish() {
         return affinePool_.isEmptyish();
     }
@@ -89,6 +211,87 @@ public class Scheduler {
             affinePool_.publish(index,t);
     }
 
+    /**
+     * schedule a task on the worker that owns its affinity key, see Affinity
+     * the task's slice is counted as in flight for the key's bucket till Task.run completes
+     */
+    public void schedule(Object key,Task t) {
+        schedule(route(key,t),t);
+    }
+
+    /** route a task to the worker that owns its key, counting it as in flight for the key's bucket */
+    int route(Object key,Task t) {
+        Affinity map = getAffinity();
+        int bucket = map.bucket(key);
+        t.bucket = bucket;
+        return map.route(bucket);
+    }
+
+    /**
+     * schedule a batch of tasks, equivalent to calling schedule for each but with each worker's share enqueued
+     * together and at most one wakeup per worker. tasks that are pinned or have an affinity key go to their
+     * worker and the rest are spread round robin starting from the worker that the Dispatch policy selects.
+     * as with schedule, the tasks must not already be runnable
+     * @see Task#startAll(Task...)
+     */
+    public void scheduleAll(Task ... tasks) {
+        affinePool_.publishAll(tasks,route(tasks,numThreads()));
+    }
+
+    /**
+     * the worker for each task of a batch, see scheduleAll
+     * registration tasks are woken immediately and get -1
+     * @param num the number of workers to spread unrouted tasks over
+     */
+    int [] route(Task [] tasks,int num) {
+        int [] index = new int[tasks.length];
+        int next = -1;
+        for (int ii=0; ii < tasks.length; ii++) {
+            Task t = tasks[ii];
+            Object key = t.affinity;
+            if (t instanceof RegistrationTask) {
+                ((RegistrationTask) t).wake();
+                index[ii] = -1;
+            }
+            else if (t.preferredResumeThread >= 0)
+                index[ii] = t.preferredResumeThread;
+            else if (key != null)
+                index[ii] = route(key,t);
+            else {
+                if (next < 0) next = dispatch.select(load());
+                index[ii] = next;
+                next = (next+1) % num;
+            }
+        }
+        return index;
+    }
+
+    /** the map from affinity keys to workers, created on first use */
+    public Affinity getAffinity() {
+        Affinity map = affinity;
+        if (map==null)
+            synchronized (this) {
+                if ((map = affinity)==null)
+                    affinity = map = new Affinity(numThreads(),defaultBuckets*numThreads());
+            }
+        return map;
+    }
+
+    /** set the policy used by rebalance, which by default moves a bucket from the hottest worker */
+    public void setRebalancer(Affinity.Rebalancer rebalancer) {
+        this.rebalancer = rebalancer;
+    }
+
+    /** run the rebalancer against the current worker loads, eg periodically or when a worker is hot */
+    public void rebalance() {
+        rebalancer.rebalance(getAffinity(),load());
+    }
+
+    /** the load of the workers */
+    protected Dispatch.Workers load() {
+        return affinePool_;
+    }
+
     public void scheduleTimer(Timer t) {
         timerService.submit(t);
     }
@@ -99,16 +302,53 @@ public class Scheduler {
      * could be partially executed
      */
     public void idledown() {
-        if (affinePool_!=null&&affinePool_.waitIdle(timerService,100))
+        if (awaitIdle(Long.MAX_VALUE))
             shutdown();
     }
 
+    /**
+     * no tasks are queued, running or blocked and no timers are pending, at some moment during the call
+     */
+    protected boolean isIdle() {
+        return blocked.get()==0 && affinePool_.resolved(timerService);
+    }
+
+    /**
+     * block the thread till a moment at which there are no queued or running tasks and no pending timers.
+     * the pool and the timer service signal the idle latch as the pending count drops to zero,
+     * so this returns promptly once the scheduler goes quiet
+     * @param timeoutMillis the maximum time to wait
+     * @return true if the scheduler went idle, false on timeout or interruption
+     */
+    public boolean awaitIdle(long timeoutMillis) {
+        IdleLatch latch = timerService.idleLatch;
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis), start = System.nanoTime();
+        latch.enter();
+        try {
+            while (true) {
+                long epoch = latch.epoch();
+                if (isIdle())
+                    return true;
+                long remaining = nanos - (System.nanoTime()-start);
+                if (remaining <= 0)
+                    return false;
+                // the bounded wait guards against a missed transition, eg a timer purged by an idle thread
+                latch.await(epoch,Math.min(remaining,maxIdleWait));
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally { latch.exit(); }
+    }
+
     public void shutdown() {
         shutdown.set(true);
         if (defaultScheduler==this)
             defaultScheduler = null;
         if (affinePool_!=null) affinePool_.shutdown();
-        timerService.shutdown();
+        if (timerService!=null) timerService.shutdown();
     }
 
     public boolean isShutdown() {
@@ -116,9 +356,27 @@ public class Scheduler {
     }
 
 
+    /**
+     * create a scheduler of the kind named by the kilim.Scheduler.type property
+     * an elastic scheduler starts kilim.Scheduler.minThreads workers (default 1) and grows up to numThreads,
+     * and a virtual scheduler ignores numThreads and uses the jdk's carrier pool
+     * @param numThreads the number of worker threads
+     */
+    public static Scheduler make(int numThreads) {
+        switch (defaultType) {
+            case "stealing": return new StealingScheduler(numThreads);
+            case "elastic":
+                int min = Math.min(numThreads,Integer.getInteger("kilim.Scheduler.minThreads",1));
+                return new StealingScheduler(min,numThreads);
+            case "sharded":  return new ShardedScheduler(numThreads);
+            case "virtual":  return new VirtualScheduler();
+            default:         return new Scheduler(numThreads);
+        }
+    }
+
     public synchronized static Scheduler getDefaultScheduler() {
         if (defaultScheduler==null)
-            defaultScheduler = new Scheduler(defaultNumberThreads);
+            defaultScheduler = make(defaultNumberThreads);
         return defaultScheduler;
     }
 
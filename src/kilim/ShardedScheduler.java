@@ -0,0 +1,355 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import kilim.concurrent.SPSCQueue;
+import kilim.nio.NioSelectorScheduler.RegistrationTask;
+import kilim.timerservice.Timer;
+import kilim.timerservice.TimerService;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static kilim.concurrent.UnsafeAccess.UNSAFE;
+
+/**
+ * a thread-per-core scheduler, ie a shared-nothing set of shards
+ * each shard is a single thread that owns its tasks and its timers. a task is placed when it's first scheduled,
+ * on the shard that scheduled it if any (so tasks spawned by a task stay local) and otherwise by the Dispatch
+ * policy, and from then on it always runs on that shard, ie there's no stealing or migration
+ *
+ * a task resumed by a task on its own shard goes onto the shard's local queue, which isn't synchronized at all.
+ * a task resumed from another shard goes through the SPSCQueue ring dedicated to that pair of shards, so
+ * cross-shard messaging, eg with a MailboxSPSC per pair of tasks, doesn't touch a shared queue or lock.
+ * other threads, and shards whose ring is full, use an mpsc inbox
+ *
+ * timers are kept and fired by the shard of the waiting task. a task with an affinity key is routed each time
+ * it's scheduled, so a rebalance can move it (see Affinity) but its timers stay with the shard it was first
+ * placed on. the shards share a single proxy thread that wakes a parked shard when its next timer is due.
+ * runNext is ignored since a local resume already stays on the shard
+ *
+ * select with -Dkilim.Scheduler.type=sharded (see Scheduler.make) or construct directly
+ */
+public class ShardedScheduler extends Scheduler implements Dispatch.Workers {
+    /** the capacity of the ring between each pair of shards */
+    public static int defaultRingSize = Integer.getInteger("kilim.Scheduler.ringSize",1024);
+    /** the number of slices that a shard runs from its local queue between polls of its rings and inbox */
+    static final int drainInterval = 64;
+
+    final Shard [] shards;
+    /** the number of runnables published by threads that aren't shards */
+    private final AtomicLong external = new AtomicLong();
+    /** the timing of slices, or null if they aren't timed */
+    private volatile SliceStats stats;
+
+    public ShardedScheduler(int numThreads) {
+        this(numThreads,defaultRingSize);
+    }
+
+    /**
+     * @param numThreads the number of shards
+     * @param ringSize the capacity of each ring, rounded up to a power of 2
+     */
+    public ShardedScheduler(int numThreads,int ringSize) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("threads: " + numThreads);
+        shards = new Shard[numThreads];
+        for (int ii=0; ii < numThreads; ii++)
+            shards[ii] = new Shard(ii,ringSize,ii==0 ? null : shards[0].timers);
+        timerService = shards[0].timers;
+        for (Shard shard : shards)
+            shard.start();
+    }
+
+    public int numThreads() { return shards.length; }
+
+    public void setSliceStats(SliceStats stats) { this.stats = stats; }
+
+    public SliceStats getSliceStats() { return stats; }
+
+    public void schedule(Task t) {
+        if (t instanceof RegistrationTask)
+            ((RegistrationTask) t).wake();
+        else
+            publish(place(t),t);
+    }
+
+    public void schedule(int index,Task t) {
+        if (t instanceof RegistrationTask)
+            assert (false);
+        else {
+            if (t.shard < 0)
+                t.shard = index;
+            publish(index,t);
+        }
+    }
+
+    /** tasks that haven't been placed are spread over the shards, and the rest go to their shard */
+    public void scheduleAll(Task ... tasks) {
+        int [] index = route(tasks,shards.length);
+        boolean [] touched = new boolean[shards.length];
+        Shard src = current();
+        int total = 0;
+        for (int ii=0; ii < tasks.length; ii++) {
+            if (index[ii] < 0) continue;
+            Task t = tasks[ii];
+            if (t.shard >= 0 && t.shard < shards.length && t.affinity==null)
+                index[ii] = t.shard;
+            else if (t.shard < 0 || t.shard >= shards.length)
+                t.shard = index[ii];
+            total++;
+        }
+        if (src==null)
+            external.addAndGet(total);
+        else
+            src.published.lazySet(src.published.get()+total);
+        for (int ii=0; ii < tasks.length; ii++) {
+            if (index[ii] < 0) continue;
+            Shard dst = shards[index[ii]];
+            if (dst==src)
+                src.local.offer(tasks[ii]);
+            else {
+                if (src==null)
+                    dst.inbox.offer(tasks[ii]);
+                else if (! dst.rings[src.id].offer(tasks[ii]))
+                    spill(dst,tasks[ii]);
+                touched[dst.id] = true;
+            }
+        }
+        UNSAFE.fullFence();
+        for (Shard dst : shards)
+            if (touched[dst.id] && dst.parked)
+                LockSupport.unpark(dst);
+    }
+
+    /** the shard that owns the task, placing it if needed */
+    private int place(Task t) {
+        int index = t.shard;
+        if (index < 0 || index >= shards.length) {
+            Shard shard = current();
+            t.shard = index = shard==null ? dispatch.select(this) : shard.id;
+        }
+        return index;
+    }
+
+    /**
+     * a task's timer always goes to the shard that the task was placed on, since a timer can't move between
+     * services while it's pending, so the timeout is fired locally unless a keyed task has been moved
+     */
+    public void scheduleTimer(Timer t) {
+        int index = t.es instanceof Task ? ((Task) t.es).shard : -1;
+        Shard shard = index >= 0 && index < shards.length ? shards[index] : current();
+        (shard==null ? shards[0] : shard).timers.submit(t);
+    }
+
+    void publish(int index,Runnable task) {
+        Shard dst = shards[index], src = current();
+        if (src==dst) {
+            src.count(src.published);
+            src.local.offer(task);
+            return;
+        }
+        if (src==null) {
+            external.incrementAndGet();
+            dst.inbox.offer(task);
+        }
+        else {
+            src.count(src.published);
+            if (! dst.rings[src.id].offer(task))
+                spill(dst,task);
+            // the ring is written with a lazy set, so fence before checking the parked flag
+            UNSAFE.fullFence();
+        }
+        if (dst.parked)
+            LockSupport.unpark(dst);
+    }
+
+    /** a full ring always spills to the inbox, whatever the overflow policy */
+    private void spill(Shard dst,Runnable task) {
+        overflow.spill(0);
+        dst.inbox.offer(task);
+    }
+
+    /** return the shard for the current thread if it belongs to this scheduler, otherwise null */
+    private Shard current() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Shard) {
+            Shard shard = (Shard) thread;
+            if (shard.owner()==this)
+                return shard;
+        }
+        return null;
+    }
+
+    protected Dispatch.Workers load() { return this; }
+
+    public int size() { return shards.length; }
+    /** approximate, the backlog is sampled each time the shard polls its rings */
+    public int pending(int index) {
+        Shard shard = shards[index];
+        return shard.backlog + (shard.started==0 ? 0:1);
+    }
+    public long started(int index) { return shards[index].started; }
+
+    /**
+     * no runnables are queued or running at a moment during the call
+     * the completions are summed before the publications, and both only grow, so equal sums imply a quiet moment
+     */
+    private boolean quiet() {
+        long done = 0, sent = 0;
+        for (Shard shard : shards)
+            done += shard.completed.get();
+        sent = external.get();
+        for (Shard shard : shards)
+            sent += shard.published.get();
+        return sent==done;
+    }
+
+    public boolean isEmptyish() {
+        for (Shard shard : shards)
+            if (!shard.isEmptyish())
+                return false;
+        return true;
+    }
+
+    protected boolean isIdle() {
+        if (blocked.get() != 0 || !quiet())
+            return false;
+        for (Shard shard : shards)
+            if (!shard.timers.isEmptyLazy(shard))
+                return false;
+        return true;
+    }
+
+    /** the first shard's timers, which own the shared proxy, are shut down by super */
+    public void shutdown() {
+        super.shutdown();
+        for (Shard shard : shards) {
+            if (shard.id > 0)
+                shard.timers.shutdown();
+            LockSupport.unpark(shard);
+        }
+    }
+
+    /** a shard, ie a worker thread with its own queues and timers */
+    class Shard extends Thread implements TimerService.WatchdogContext {
+        final int id;
+        /** the runnable tasks, owner only */
+        final ArrayDeque<Runnable> local = new ArrayDeque<>();
+        /** the ring from each other shard, indexed by the source shard, null for this shard */
+        final SPSCQueue<Runnable> [] rings;
+        final ConcurrentLinkedQueue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+        final TimerService timers;
+        /** the number of runnables that this shard has published and completed, written only by the owner */
+        final AtomicLong published = new AtomicLong(), completed = new AtomicLong();
+        /** the nanoTime that the running task started, or 0 if idle */
+        volatile long started;
+        volatile boolean parked;
+        /** the size of the local queue when last drained */
+        volatile int backlog;
+        /** the number of slices since the rings were drained, owner only */
+        int ticks;
+        /** the timing of the running slice, owner only */
+        final SliceStats.Recorder recorder = new SliceStats.Recorder();
+
+        /** @param first the timers of the first shard, whose latch and proxy thread are shared, or null */
+        Shard(int id,int ringSize,TimerService first) {
+            super("KilimShard:" + id);
+            this.id = id;
+            rings = new SPSCQueue[shards.length];
+            for (int ii=0; ii < rings.length; ii++)
+                if (ii != id)
+                    rings[ii] = new SPSCQueue<>(ringSize);
+            timers = first==null ? new TimerService() : new TimerService(first);
+            timers.defaultExec = this;
+        }
+
+        ShardedScheduler owner() { return ShardedScheduler.this; }
+
+        /** increment a counter that only this shard writes, without a full fence */
+        void count(AtomicLong counter) {
+            counter.lazySet(counter.get()+1);
+        }
+
+        public boolean isEmpty() { return quiet(); }
+
+        /** the local queue is only visible to the owner, so other threads rely on the parked flag */
+        public boolean isEmptyish() {
+            if (Thread.currentThread() != this)
+                return parked;
+            if (!local.isEmpty() || !inbox.isEmpty())
+                return false;
+            for (SPSCQueue<Runnable> ring : rings)
+                if (ring != null && ring.size() > 0)
+                    return false;
+            return true;
+        }
+
+        public void publish(TimerService.WatchdogTask dog) {
+            ShardedScheduler.this.publish(id,dog);
+        }
+
+        private void drain() {
+            for (SPSCQueue<Runnable> ring : rings)
+                if (ring != null)
+                    for (Runnable task; (task = ring.poll()) != null; )
+                        local.offer(task);
+            for (Runnable task; (task = inbox.poll()) != null; )
+                local.offer(task);
+            backlog = local.size();
+        }
+
+        private Runnable poll() {
+            if (++ticks >= drainInterval || local.isEmpty()) {
+                ticks = 0;
+                drain();
+            }
+            return local.poll();
+        }
+
+        // the parked flag is written before the final poll and publishers enqueue before checking it,
+        // so either the poll sees the task or the publisher sees the flag and unparks
+        private Runnable await() {
+            parked = true;
+            Runnable task = poll();
+            if (task==null && !shutdown.get()) {
+                timers.idleLatch.signal();
+                LockSupport.park(this);
+            }
+            parked = false;
+            return task;
+        }
+
+        public void run() {
+            while (!shutdown.get()) {
+                Runnable task = poll();
+                if (task==null)
+                    task = await();
+                if (task != null)
+                    execute(task);
+            }
+        }
+
+        private void execute(Runnable task) {
+            Group group = null;
+            if (task instanceof Task) {
+                ((Task) task).setTid(id);
+                group = ((Task) task).group;
+            }
+            started = System.nanoTime();
+            recorder.begin(stats,task,started);
+            try { task.run(); }
+            catch (Throwable ex) { ex.printStackTrace(); }
+            long now = System.nanoTime();
+            recorder.end(now);
+            if (group != null) group.charge(now - started);
+            started = 0;
+            if (task instanceof Task)
+                ((Task) task).release();
+            timers.trigger(this);
+            count(completed);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * the bounded, blocking plumbing shared by the AffineThreadPool executor queues that reorder task slices,
+ * see RunQueue and FairQueue. subclasses decide where a slice goes and which slice is served next,
+ * and the ordering state is only maintained correctly for a single consumer, ie the executor's thread
+ */
+public abstract class SliceQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private final int capacity;
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile int waiters;
+
+    /** @param capacity the most runnables that can be queued */
+    protected SliceQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /** a task slice, as wrapped by the executor, that remembers the task's priority and group when scheduled */
+    static class Slice<TT> extends FutureTask<TT> {
+        final Task task;
+        final int priority;
+        final Group group;
+        Slice(Runnable runnable,TT value) {
+            super(runnable,value);
+            task = runnable instanceof Task ? (Task) runnable : null;
+            priority = task==null ? Integer.MAX_VALUE : task.priority;
+            group = task==null ? null : task.group;
+        }
+    }
+
+    /** add a runnable, which always succeeds since the capacity has already been reserved */
+    abstract void enqueue(Runnable runnable);
+
+    /** remove the next runnable to serve, or return null if empty, called only by the consumer */
+    abstract Runnable dequeue();
+
+    abstract boolean delete(Object obj);
+
+    /** add the queued runnables to dst, in roughly the order that they'd be served */
+    abstract void collect(Collection<Runnable> dst);
+
+    /**
+     * account for a slice that just completed, called only by the consumer
+     * @param group the group of the slice's task, or null
+     * @param nanos the cpu time of the slice, or its duration if the jvm can't measure thread cpu time
+     */
+    void charge(Group group,long nanos) {}
+
+    /**
+     * account for a slice of this queue's executor that ran on another thread instead of being queued,
+     * eg inlined by an overflow, called by that thread
+     */
+    void chargeRemote(Group group,long nanos) {}
+
+    /** does this queue use charge */
+    boolean charges() { return false; }
+
+    public int size() { return size.get(); }
+
+    public int remainingCapacity() { return capacity - size.get(); }
+
+    public boolean offer(Runnable runnable) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        enqueue(runnable);
+        signal();
+        return true;
+    }
+
+    /** add a batch, signaling the consumer at most once, or add nothing if there isn't room for all of it */
+    boolean offerAll(Collection<Runnable> batch) {
+        int num = batch.size();
+        if (size.addAndGet(num) > capacity) {
+            size.addAndGet(-num);
+            return false;
+        }
+        for (Runnable runnable : batch)
+            enqueue(runnable);
+        signal();
+        return true;
+    }
+
+    private void signal() {
+        if (waiters > 0) {
+            lock.lock();
+            try { notEmpty.signal(); }
+            finally { lock.unlock(); }
+        }
+    }
+
+    public Runnable poll() {
+        if (size.get()==0) return null;
+        Runnable runnable = dequeue();
+        if (runnable != null)
+            size.decrementAndGet();
+        return runnable;
+    }
+
+    public Runnable peek() {
+        ArrayList<Runnable> all = new ArrayList<>();
+        collect(all);
+        return all.isEmpty() ? null : all.get(0);
+    }
+
+    public Runnable take() throws InterruptedException {
+        return poll(Long.MAX_VALUE,TimeUnit.NANOSECONDS);
+    }
+
+    public Runnable poll(long timeout,TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        Runnable runnable;
+        while ((runnable = poll())==null) {
+            if (nanos <= 0) return null;
+            lock.lockInterruptibly();
+            waiters++;
+            try {
+                // producers enqueue before checking waiters, so either this poll sees the slice or they signal
+                if ((runnable = poll()) != null)
+                    return runnable;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            finally {
+                waiters--;
+                lock.unlock();
+            }
+        }
+        return runnable;
+    }
+
+    public void put(Runnable runnable) throws InterruptedException {
+        offer(runnable,Long.MAX_VALUE,TimeUnit.NANOSECONDS);
+    }
+
+    public boolean offer(Runnable runnable,long timeout,TimeUnit unit) throws InterruptedException {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(runnable)) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (end - System.nanoTime() <= 0) return false;
+            LockSupport.parkNanos(100000);
+        }
+        return true;
+    }
+
+    public boolean remove(Object obj) {
+        if (!delete(obj)) return false;
+        size.decrementAndGet();
+        return true;
+    }
+
+    public int drainTo(Collection<? super Runnable> dst) {
+        return drainTo(dst,Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super Runnable> dst,int max) {
+        int num = 0;
+        for (Runnable runnable; num < max && (runnable = poll()) != null; num++)
+            dst.add(runnable);
+        return num;
+    }
+
+    /** a read-only snapshot of the queued runnables */
+    public Iterator<Runnable> iterator() {
+        ArrayList<Runnable> all = new ArrayList<>();
+        collect(all);
+        return Collections.unmodifiableList(all).iterator();
+    }
+}
@@ -0,0 +1,248 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * timing of the slices that a scheduler's workers run, ie each run of a task between pauses, see
+ * Scheduler.setSliceStats. the duration of each slice is added to a histogram for the task's class, and
+ * a watchdog thread reports any slice that runs longer than the threshold while it's still running, with
+ * the stack of the worker, ie the frames of the task that is holding it
+ *
+ * it can be attached to and detached from a running scheduler at any time, and while detached the workers
+ * only pay for a volatile read per slice. the affine (default), stealing and sharded schedulers time their
+ * slices, the virtual scheduler doesn't
+ */
+public class SliceStats {
+    /** the duration past which a running slice is reported, in nanoseconds, or 0 for no watchdog */
+    public final long threshold;
+    private final Consumer<Overrun> reporter;
+    private final ConcurrentHashMap<Class<?>,Histogram> histograms = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<>();
+    private final AtomicLong overruns = new AtomicLong();
+    private final Thread watchdog;
+    private volatile boolean closed;
+
+    /** histograms only, no watchdog */
+    public SliceStats() {
+        this(0,null);
+    }
+
+    /**
+     * @param threshold the duration past which a running slice is reported, in milliseconds, or 0 for none
+     * @param reporter the callback for each overrun, or null to only count them, eg System.err::print
+     */
+    public SliceStats(long threshold,Consumer<Overrun> reporter) {
+        this.threshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+        this.reporter = reporter==null ? overrun -> {} : reporter;
+        if (threshold > 0) {
+            watchdog = new Thread(this::watch,"KilimSliceWatchdog");
+            watchdog.setDaemon(true);
+            watchdog.start();
+        }
+        else
+            watchdog = null;
+    }
+
+    /** stop the watchdog, the histograms remain readable */
+    public void close() {
+        closed = true;
+        if (watchdog != null)
+            watchdog.interrupt();
+    }
+
+    /** the histogram for each task class that has run a slice */
+    public Map<Class<?>,Histogram> histograms() { return histograms; }
+
+    /** the histogram for a task class, or null if none of its slices have run */
+    public Histogram histogram(Class<?> klass) { return histograms.get(klass); }
+
+    /** the number of slices that the watchdog has reported */
+    public long overruns() { return overruns.get(); }
+
+    /** the histograms, slowest class first */
+    public String toString() {
+        ArrayList<Map.Entry<Class<?>,Histogram>> list = new ArrayList<>(histograms.entrySet());
+        list.sort((a,b) -> Long.compare(b.getValue().max(),a.getValue().max()));
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Class<?>,Histogram> entry : list)
+            sb.append(entry.getKey().getName()).append(": ").append(entry.getValue()).append('\n');
+        return sb.toString();
+    }
+
+    /** register a worker, called by the worker itself */
+    Slot slot(Thread thread) {
+        Slot slot = new Slot(this,thread);
+        slots.add(slot);
+        return slot;
+    }
+
+    void record(Task task,long nanos) {
+        Class<?> klass = task.getClass();
+        Histogram hist = histograms.get(klass);
+        if (hist==null)
+            hist = histograms.computeIfAbsent(klass,key -> new Histogram());
+        hist.add(nanos);
+    }
+
+    private void watch() {
+        long period = Math.max(threshold/2,TimeUnit.MILLISECONDS.toNanos(1));
+        while (!closed) {
+            try { TimeUnit.NANOSECONDS.sleep(period); }
+            catch (InterruptedException ex) { continue; }
+            long now = System.nanoTime();
+            for (Slot slot : slots) {
+                long started = slot.started;
+                Task task = slot.task;
+                if (task==null || started==0 || now-started < threshold || slot.reported==started)
+                    continue;
+                StackTraceElement [] stack = slot.thread.getStackTrace();
+                // the slice may have ended while the stack was taken
+                if (slot.started != started)
+                    continue;
+                slot.reported = started;
+                overruns.incrementAndGet();
+                try { reporter.accept(new Overrun(task,slot.thread,now-started,stack)); }
+                catch (Throwable ex) { ex.printStackTrace(); }
+            }
+        }
+    }
+
+    /** the slice that a worker is running, written by the worker and read by the watchdog */
+    static class Slot {
+        final SliceStats stats;
+        final Thread thread;
+        volatile Task task;
+        /** the nanoTime that the slice started, or 0 if idle */
+        volatile long started;
+        /** the start of the last slice reported, watchdog only */
+        long reported;
+
+        Slot(SliceStats stats,Thread thread) {
+            this.stats = stats;
+            this.thread = thread;
+        }
+
+        void begin(Task task,long now) {
+            this.task = task;
+            started = now;
+        }
+
+        void end(long now) {
+            Task prev = task;
+            long nanos = now - started;
+            started = 0;
+            task = null;
+            if (prev != null)
+                stats.record(prev,nanos);
+        }
+    }
+
+    /** the slices of a worker, for schedulers whose workers can change threads, owned by the running thread */
+    static class Recorder {
+        private Slot slot, timing;
+
+        /** start timing a slice if the stats are enabled and the runnable is a task */
+        void begin(SliceStats stats,Runnable task,long now) {
+            if (stats==null || !(task instanceof Task))
+                return;
+            Thread thread = Thread.currentThread();
+            if (slot==null || slot.stats != stats || slot.thread != thread) {
+                if (slot != null)
+                    slot.stats.slots.remove(slot);
+                slot = stats.slot(thread);
+            }
+            timing = slot;
+            timing.begin((Task) task,now);
+        }
+
+        void end(long now) {
+            if (timing != null) {
+                timing.end(now);
+                timing = null;
+            }
+        }
+    }
+
+    /** a slice that ran past the threshold, as seen by the watchdog */
+    public static class Overrun {
+        public final Task task;
+        public final Thread thread;
+        /** how long the slice had been running when it was seen, in nanoseconds */
+        public final long nanos;
+        /** the stack of the worker, the innermost frame first */
+        public final StackTraceElement [] stack;
+
+        Overrun(Task task,Thread thread,long nanos,StackTraceElement [] stack) {
+            this.task = task;
+            this.thread = thread;
+            this.nanos = nanos;
+            this.stack = stack;
+        }
+
+        /** the task's class, the worker and the duration, followed by the worker's stack down to the task */
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("kilim: slice of ").append(task.getClass().getName()).append(" (task ").append(task.id)
+                    .append(") running on ").append(thread.getName()).append(" for ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms\n");
+            for (StackTraceElement ste : stack) {
+                sb.append("\tat ").append(ste).append('\n');
+                if (ste.getClassName().equals(Task.class.getName()) && ste.getMethodName().equals("run"))
+                    break;
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * a histogram of durations in power of 2 nanosecond buckets, ie bucket i counts durations in [2^(i-1),2^i)
+     * updated without locks, so a snapshot taken while slices are recorded may be slightly inconsistent
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong(), total = new AtomicLong(), max = new AtomicLong();
+
+        void add(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            for (long prev; nanos > (prev = max.get()) && !max.compareAndSet(prev,nanos); ) {}
+        }
+
+        /** the number of slices */
+        public long count() { return count.get(); }
+        /** the total duration, in nanoseconds */
+        public long total() { return total.get(); }
+        /** the longest slice, in nanoseconds */
+        public long max() { return max.get(); }
+        public long mean() {
+            long num = count();
+            return num==0 ? 0 : total()/num;
+        }
+        /** the number of slices in bucket i, ie with durations in [2^(i-1),2^i) nanoseconds */
+        public long bucket(int index) { return buckets.get(index); }
+
+        /** an upper bound on the duration of the given fraction of the slices, eg 0.99, in nanoseconds */
+        public long percentile(double fraction) {
+            long target = (long) Math.ceil(fraction*count()), sum = 0;
+            for (int ii=0; ii < 64; ii++)
+                if ((sum += buckets.get(ii)) >= target && sum > 0)
+                    return Math.min(ii==63 ? Long.MAX_VALUE : 1L << ii,max());
+            return max();
+        }
+
+        public String toString() {
+            return "count=" + count() + ",mean=" + mean() + ",p99<=" + percentile(.99) + ",max=" + max();
+        }
+    }
+}
@@ -0,0 +1,407 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import kilim.nio.NioSelectorScheduler.RegistrationTask;
+import kilim.timerservice.TimerService;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * a work-stealing scheduler
+ * each worker owns a deque of runnable tasks and an inbox of tasks that are pinned to it
+ * a task resumed from a worker thread is pushed onto that worker's deque, tasks from other threads are spread
+ * according to the Dispatch policy, and a worker that runs out of work steals from the tail of another worker's
+ * deque before parking. the policy also decides whether a backlog is large enough to wake an idle worker
+ *
+ * pinned tasks, ie Task.preferredResumeThread or schedule(int,Task), are never stolen
+ *
+ * the pool is elastic when constructed with minThreads < maxThreads: a worker is started when a task is queued
+ * behind growDepth others and no worker is parked, and the highest numbered worker retires once it has been idle
+ * for keepAlive. the live workers are always 0 ... activeThreads()-1, so the dispatch policy and the task ids
+ * stay dense, and a worker that has a paused task pinned to it never retires, ie the thread that a task pinned
+ * itself to is the thread that resumes it. schedule(int,Task) for a retired index starts that worker again
+ *
+ * select with -Dkilim.Scheduler.type=stealing or elastic (see Scheduler.make) or construct directly
+ */
+public class StealingScheduler extends Scheduler implements TimerService.WatchdogContext, Dispatch.Workers {
+    /** the queue depth at which an elastic pool starts another worker */
+    public static int defaultGrowDepth = Integer.getInteger("kilim.Scheduler.growDepth",4);
+    /** the time in milliseconds that a worker must be idle before an elastic pool retires it */
+    public static long defaultKeepAlive = Long.getLong("kilim.Scheduler.keepAlive",1000);
+
+    final Worker [] workers;
+    final int minThreads;
+    /** the number of live workers, ie workers 0 ... live-1 are running. changes are guarded by workers */
+    private volatile int live;
+    private volatile int growDepth = defaultGrowDepth;
+    private volatile long keepAlive = TimeUnit.MILLISECONDS.toNanos(defaultKeepAlive);
+
+    /** the number of tasks published but not yet completed */
+    private final AtomicInteger count = new AtomicInteger(0);
+    /** the number of parked workers */
+    private final AtomicInteger idle = new AtomicInteger(0);
+    /** the timing of slices, or null if they aren't timed */
+    private volatile SliceStats stats;
+
+    public StealingScheduler(int numThreads) {
+        this(numThreads,numThreads);
+    }
+
+    /**
+     * create an elastic scheduler
+     * @param minThreads the number of workers that are started immediately and never retire, at least 1
+     * @param maxThreads the most workers that will run at once
+     */
+    public StealingScheduler(int minThreads,int maxThreads) {
+        if (minThreads < 1 || maxThreads < minThreads)
+            throw new IllegalArgumentException("threads: " + minThreads + " ... " + maxThreads);
+        timerService = new TimerService();
+        timerService.defaultExec = this;
+        this.minThreads = minThreads;
+        workers = new Worker[maxThreads];
+        for (int ii=0; ii < maxThreads; ii++)
+            workers[ii] = new Worker(ii);
+        grow(minThreads);
+    }
+
+    /** the most workers that can run at once, ie an upper bound on Task.getTid */
+    public int numThreads() { return workers.length; }
+
+    public void setSliceStats(SliceStats stats) { this.stats = stats; }
+
+    public SliceStats getSliceStats() { return stats; }
+
+    /** the number of workers that are currently running */
+    public int activeThreads() { return live; }
+
+    /**
+     * tune the elastic pool
+     * @param growDepth the queue depth at which another worker is started
+     * @param keepAlive the time in milliseconds that a worker must be idle before it retires
+     */
+    public void setElastic(int growDepth,long keepAlive) {
+        this.growDepth = growDepth;
+        this.keepAlive = TimeUnit.MILLISECONDS.toNanos(keepAlive);
+    }
+
+    public void schedule(Task t) {
+        if (t instanceof RegistrationTask)
+            ((RegistrationTask) t).wake();
+        else
+            publish(t);
+    }
+
+    public void schedule(int index,Task t) {
+        if (t instanceof RegistrationTask)
+            assert (false);
+        else {
+            count.incrementAndGet();
+            Worker worker = workers[index];
+            worker.pinned.offer(t);
+            if (! worker.wake() && worker.retired)
+                grow(index+1);
+        }
+    }
+
+    /** pinned and keyed tasks go to their worker's inbox and the rest are spread over the live workers */
+    public void scheduleAll(Task ... tasks) {
+        int [] index = route(tasks,live);
+        boolean [] touched = new boolean[workers.length];
+        int total = 0;
+        for (int ii : index)
+            if (ii >= 0) total++;
+        count.addAndGet(total);
+        for (int ii=0; ii < tasks.length; ii++) {
+            if (index[ii] < 0) continue;
+            Task t = tasks[ii];
+            Worker worker = workers[index[ii]];
+            if (t.preferredResumeThread >= 0 || t.affinity != null)
+                worker.pinned.offer(t);
+            else
+                worker.push(t);
+            touched[worker.id] = true;
+        }
+        int target = 0;
+        for (Worker worker : workers)
+            if (touched[worker.id] && !worker.wake()) {
+                if (worker.retired)
+                    target = Math.max(target,worker.id+1);
+                else if (live < workers.length && worker.queued.get() >= growDepth)
+                    target = Math.max(target,live+1);
+            }
+        if (target > 0)
+            grow(target);
+    }
+
+    public void publish(TimerService.WatchdogTask dog) {
+        publish((Runnable) dog);
+    }
+
+    void publish(Runnable task) {
+        count.incrementAndGet();
+        Worker worker = current();
+        if (worker != null && runNext && task instanceof Task && task != worker.running) {
+            // lifo - the displaced task goes to the back of the deque
+            Runnable prev = worker.next;
+            worker.next = task;
+            if (prev==null)
+                return;
+            task = prev;
+        }
+        if (worker==null)
+            worker = workers[dispatch.select(this)];
+        worker.push(task);
+        if (worker.wake()) return;
+        // a retired worker's deque is only drained by stealing, so always look for help
+        if ((worker.retired || dispatch.spill(this,worker.id)) && signal()) return;
+        if (live < workers.length && worker.queued.get() >= growDepth)
+            grow(live+1);
+    }
+
+    protected Dispatch.Workers load() { return this; }
+
+    public int size() { return live; }
+    public int pending(int index) {
+        Worker worker = workers[index];
+        return worker.queued.get() + (worker.started==0 ? 0:1);
+    }
+    public long started(int index) { return workers[index].started; }
+
+    /** wake a single parked worker, if any, so that it can steal, returning true if one was woken */
+    private boolean signal() {
+        if (idle.get()==0) return false;
+        for (Worker worker : workers)
+            if (worker.wake())
+                return true;
+        return false;
+    }
+
+    /** start (or revive) workers till there are at least num live */
+    private void grow(int num) {
+        synchronized (workers) {
+            while (live < num && !shutdown.get()) {
+                Worker worker = workers[live];
+                worker.retired = false;
+                if (worker.thread==null) {
+                    worker.thread = new Carrier(worker);
+                    worker.thread.start();
+                }
+                else
+                    LockSupport.unpark(worker.thread);
+                live++;
+            }
+        }
+    }
+
+    /**
+     * retire the worker if it's the highest numbered live worker and nothing is pinned to it
+     * @return true if the calling thread, which must be the worker's, should exit
+     */
+    private boolean retire(Worker worker) {
+        synchronized (workers) {
+            if (worker.id != live-1 || live <= minThreads || worker.pins > 0 || worker.next != null)
+                return false;
+            live--;
+            worker.retired = true;
+            // publishers enqueue before checking the retired flag, so either they see it or this check sees the task
+            if (worker.deque.isEmpty() && worker.pinned.isEmpty()) {
+                worker.thread = null;
+                return true;
+            }
+            grow(worker.id+1);
+            return false;
+        }
+    }
+
+    /** return the worker for the current thread if it belongs to this scheduler, otherwise null */
+    private Worker current() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Carrier) {
+            Worker worker = ((Carrier) thread).worker;
+            if (worker.owner()==this)
+                return worker;
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return count.get()==0;
+    }
+
+    /**
+     * are the queues empty - allows false positives, but not false negatives,
+     * see AffineThreadPool.isEmptyish
+     */
+    public boolean isEmptyish() {
+        for (Worker worker : workers)
+            if (!worker.deque.isEmpty() || !worker.pinned.isEmpty() || worker.next != null)
+                return false;
+        return true;
+    }
+
+    protected boolean isIdle() {
+        return count.get()==0 && blocked.get()==0 && timerService.isEmptyLazy(this);
+    }
+
+    public void shutdown() {
+        super.shutdown();
+        synchronized (workers) {
+            for (Worker worker : workers)
+                LockSupport.unpark(worker.thread);
+        }
+    }
+
+    static class Carrier extends Thread {
+        final Worker worker;
+        Carrier(Worker worker) {
+            super("KilimStealing:" + worker.id);
+            this.worker = worker;
+        }
+        public void run() { worker.run(); }
+    }
+
+    /** the state of a worker, which outlives the thread when an elastic pool retires and revives it */
+    class Worker {
+        final int id;
+        final ConcurrentLinkedDeque<Runnable> deque = new ConcurrentLinkedDeque<>();
+        final ConcurrentLinkedQueue<Runnable> pinned = new ConcurrentLinkedQueue<>();
+        /** the size of the deque, which is linear time to compute directly */
+        final AtomicInteger queued = new AtomicInteger();
+        /** the nanoTime that the running task started, or 0 if idle */
+        volatile long started;
+        volatile boolean parked, retired;
+        /** the thread, or null if retired. written under workers */
+        volatile Carrier thread;
+        /** the run-next slot, the running task and the number of tasks run from the slot in a row, owner only */
+        Runnable next, running;
+        /** the timing of the running slice, owner only */
+        final SliceStats.Recorder recorder = new SliceStats.Recorder();
+        int streak;
+        /** the number of paused tasks that are pinned to this worker, owner only */
+        int pins;
+        /** set by the owner when it stayed parked for keepAlive */
+        boolean expired;
+
+        Worker(int id) {
+            this.id = id;
+        }
+
+        StealingScheduler owner() { return StealingScheduler.this; }
+
+        /** unpark this worker if it is parked, returning true if it was */
+        boolean wake() {
+            if (!parked) return false;
+            LockSupport.unpark(thread);
+            return true;
+        }
+
+        void push(Runnable task) {
+            queued.incrementAndGet();
+            deque.offerLast(task);
+        }
+
+        private Runnable take(boolean last) {
+            Runnable task = last ? deque.pollLast() : deque.pollFirst();
+            if (task != null)
+                queued.decrementAndGet();
+            return task;
+        }
+
+        private Runnable poll() {
+            Runnable task = pinned.poll();
+            return task==null ? take(false) : task;
+        }
+
+        // retired workers are included so that anything published to them during retirement is found
+        private Runnable steal() {
+            int num = workers.length;
+            for (int ii=1; ii < num; ii++) {
+                Runnable task = workers[(id+ii) % num].take(true);
+                if (task != null)
+                    return task;
+            }
+            return null;
+        }
+
+        private Runnable find() {
+            Runnable task = next;
+            if (task != null) {
+                next = null;
+                if (++streak <= runNextLimit)
+                    return task;
+                push(task);
+            }
+            streak = 0;
+            task = poll();
+            return task==null ? steal() : task;
+        }
+
+        // the parked flag is written before the final scan and publishers enqueue before checking it,
+        // so either the scan sees the task or the publisher sees the flag and unparks
+        // workers that may retire only park for keepAlive, and flag expired if they stayed idle that long
+        private Runnable await() {
+            parked = true;
+            idle.incrementAndGet();
+            Runnable task = find();
+            expired = false;
+            if (task==null && !shutdown.get()) {
+                if (id < minThreads)
+                    LockSupport.park(this);
+                else {
+                    long limit = keepAlive, start = System.nanoTime();
+                    LockSupport.parkNanos(this,limit);
+                    expired = System.nanoTime()-start >= limit;
+                }
+            }
+            idle.decrementAndGet();
+            parked = false;
+            return task;
+        }
+
+        void run() {
+            while (!shutdown.get()) {
+                Runnable task = find();
+                if (task==null)
+                    task = await();
+                // once retired, the worker may be revived by another thread, so return without touching any state
+                if (task==null && expired && retire(this))
+                    return;
+                if (task != null)
+                    execute(task);
+            }
+        }
+
+        private void execute(Runnable task) {
+            Task pin = null;
+            if (task instanceof Task) {
+                pin = (Task) task;
+                pin.setTid(id);
+                if (pin.preferredResumeThread==id) pins--;
+            }
+            // read before the run, since an exited pooled task is reset by release
+            Group group = pin==null ? null : pin.group;
+            started = System.nanoTime();
+            running = task;
+            recorder.begin(stats,task,started);
+            try { task.run(); }
+            catch (Throwable ex) { ex.printStackTrace(); }
+            long now = System.nanoTime();
+            recorder.end(now);
+            if (group != null) group.charge(now - started);
+            running = null;
+            started = 0;
+            if (pin != null) {
+                if (pin.preferredResumeThread==id) pins++;
+                pin.release();
+            }
+            timerService.trigger(StealingScheduler.this);
+            if (count.decrementAndGet()==0)
+                timerService.idleLatch.signal();
+        }
+    }
+}
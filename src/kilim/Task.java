@@ -8,9 +8,11 @@ package kilim;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A base class for tasks. A task is a lightweight thread (it contains its own
@@ -45,8 +47,12 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
      * The Task.runExecute() method is called at some point; 'running' remains
      * true until the end of runExecute (where it is reset), at which point a
      * fresh decision is made whether the task needs to continue running.
+     * 1 for true, 0 for false. it was an AtomicBoolean, and is now set with runningUpdater to avoid an object
+     * per task, so subclasses should read it and clear it but not set it directly
      */
-    protected AtomicBoolean              running               = new AtomicBoolean(false);
+    protected volatile int               running;
+    private static final AtomicIntegerFieldUpdater<Task> runningUpdater
+            = AtomicIntegerFieldUpdater.newUpdater(Task.class,"running");
     protected volatile boolean           done                  = false;
 
     /**
@@ -59,6 +65,27 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
     volatile int                         preferredResumeThread = -1;
 
     private int                          tid;
+    /**
+     * the run queue level, read each time the task is scheduled
+     * @see #setPriority(int)
+     */
+    volatile int                         priority;
+    /**
+     * the scheduling group, read each time the task is scheduled
+     * @see #setGroup(Group)
+     */
+    volatile Group                       group;
+    /**
+     * the affinity key and the bucket that the running slice was routed to, or -1
+     * @see #setAffinity(Object)
+     */
+    volatile Object                      affinity;
+    int                                  bucket = -1;
+    /**
+     * the shard that owns the task, or -1 if not yet placed
+     * @see ShardedScheduler
+     */
+    volatile int                         shard = -1;
     /**
      * @see Task#preferredResumeThread
      */
@@ -68,6 +95,13 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
      * @see #informOnExit(Mailbox)
      */
     private LinkedList<Mailbox<ExitMsg>> exitMBs;
+    /**
+     * the pool that the task returns to when it exits, or null
+     * @see TaskPool
+     */
+    TaskPool<?>                          pool;
+    /** set by run when a pooled task exits, till the scheduler releases it to the pool, see release */
+    private boolean                      exited;
 
     /**
      * The object responsible for handing this task to a thread when the task is
@@ -78,7 +112,7 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
     public    volatile Object           exitResult = "OK";
 
 
-    // new timer service
+    /** the timer for timeouts, created by timer() the first time the task waits with a timeout */
     public kilim.timerservice.Timer       timer_new;
     
     // for debugging Task.resume race conditions
@@ -87,7 +121,6 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
     public Task() {
         id = idSource.incrementAndGet();
         fiber = new Fiber(this);
-        timer_new = new kilim.timerservice.Timer(this);
     }
     Task(boolean dummy) { id = idSource.incrementAndGet(); }
 
@@ -108,6 +141,49 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
         return scheduler;
     }
 
+    /**
+     * set the priority, which takes effect the next time the task is scheduled, so it can be set before start()
+     * or changed by the task at runtime. 0 (the default) is the lowest, and a scheduler with multiple run queue
+     * levels serves the higher levels first, clamping the priority to its top level
+     * @see RunQueue
+     */
+    public Task setPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * join a scheduling group, or leave it with null, which takes effect the next time the task is scheduled.
+     * the run time of the task's slices is charged to the group by every scheduler, and only a scheduler that
+     * uses FairQueue shares its workers between the groups by weight
+     */
+    public Task setGroup(Group group) {
+        this.group = group;
+        return this;
+    }
+
+    public Group getGroup() {
+        return group;
+    }
+
+    /**
+     * set the affinity key, which takes effect the next time the task is scheduled. tasks with equal keys
+     * always run on the same worker, see Affinity, and null (the default) lets the scheduler pick.
+     * a task that is pinned to a thread resumes on that thread regardless
+     */
+    public Task setAffinity(Object key) {
+        this.affinity = key;
+        return this;
+    }
+
+    public Object getAffinity() {
+        return affinity;
+    }
+
     public void resumeOnScheduler(Scheduler s) throws Pausable {
         if (scheduler == s)
             return;
@@ -130,6 +206,30 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
         return this;
     }
 
+    /**
+     * start a batch of tasks, equivalent to calling start on each but with each worker's share of the batch
+     * enqueued together and at most one wakeup per worker, see Scheduler.scheduleAll.
+     * tasks without a scheduler use the default scheduler, and tasks that are done or already running are skipped
+     */
+    public static void startAll(Task ... tasks) {
+        Task [] batch = new Task[tasks.length];
+        Scheduler prev = null;
+        int num = 0;
+        for (Task t : tasks) {
+            if (t.scheduler == null)
+                t.setScheduler(Scheduler.getDefaultScheduler());
+            if (t.scheduler != prev && num > 0) {
+                prev.scheduleAll(Arrays.copyOf(batch,num));
+                num = 0;
+            }
+            prev = t.scheduler;
+            if (!t.done && t.claim())
+                batch[num++] = t;
+        }
+        if (num > 0)
+            prev.scheduleAll(num==batch.length ? batch : Arrays.copyOf(batch,num));
+    }
+
     private static Fiber.MethodRef runnerInfo = new Fiber.MethodRef("kilim.Task","run");
     Fiber.MethodRef getRunnerInfo() {
         return runnerInfo;
@@ -158,11 +258,28 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
         throw new AssertionError("Expected task to be run by WorkerThread");
     }
 
+    /**
+     * the timer for the task's timeouts, created on first use since most tasks never wait with a timeout.
+     * only called by the task itself, and the timer is published to the timer service when it's scheduled
+     */
+    public kilim.timerservice.Timer timer() {
+        kilim.timerservice.Timer timer = timer_new;
+        if (timer==null)
+            timer_new = timer = new kilim.timerservice.Timer(this);
+        return timer;
+    }
+
+    /** claim the running flag, returning false if it's already set */
+    boolean claim() {
+        return runningUpdater.compareAndSet(this,0,1);
+    }
+
     boolean checkTimeout() {
-        return timer_new.getExecutionTime()==-2;
+        kilim.timerservice.Timer timer = timer_new;
+        return timer != null && timer.getExecutionTime()==-2;
     }
     public void onEvent(EventPublisher ep, Event e) {
-        if (e==Cell.timedOut)
+        if (e==Cell.timedOut && timer_new != null)
             timer_new.setLiteral(-2);
         boolean sched = resume();
     }
@@ -186,7 +303,7 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
         // will be doing that anyway.
 
         if (!done)
-            if (running.compareAndSet(/* expected */false, /* update */true))
+            if (claim())
                 doSchedule = true;
             else
                 if (debugRunning) System.out.println("Task.pause.running: " + this);
@@ -194,7 +311,10 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
 
 
         if (doSchedule) {
-            if (preferredResumeThread == -1)
+            Object key = affinity;
+            if (preferredResumeThread == -1 && key != null)
+                scheduler.schedule(key,this);
+            else if (preferredResumeThread == -1)
                 scheduler.schedule(this);
             else
                 scheduler.schedule(preferredResumeThread, this);
@@ -335,7 +455,7 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
 
     // Given a method corresp. to "f(int)", return the equivalent woven method
     // for "f(int, kilim.Fiber)"
-    private static Method getWovenMethod(Method m) {
+    static Method getWovenMethod(Method m) {
         Class<?>[] ptypes = m.getParameterTypes();
         if (!(ptypes.length > 0 && ptypes[ptypes.length - 1].getName().equals("kilim.Fiber"))) {
             // The last param is not "Fiber", so m is not woven.
@@ -384,6 +504,16 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
         sleepmb.get(millis);
     }
 
+    /**
+     * run a blocking call, eg file io or a jdbc driver, on the default Offload pool instead of on the worker.
+     * the task pauses till the call completes and then resumes on its scheduler
+     * @return the value returned by body
+     * @throws Exception the exception thrown by body
+     */
+    public static <TT> TT blocking(Callable<TT> body) throws Pausable, Exception {
+        return Offload.getDefault().call(body);
+    }
+
     public static void shutdown() {
     }
     
@@ -405,6 +535,19 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
         f.task.checkKill();
     }
 
+    /**
+     * a preemption check, inserted by the weaver at the back-edge of each loop in a pausable method when
+     * preemption is enabled (see KilimContext.preempt), and not meant to be called directly.
+     * the woven code only makes the call once the fiber's budget has expired, and it yields like yield()
+     */
+    public static void preempt() throws Pausable {
+        errNotWoven();
+    }
+
+    public static void preempt(Fiber f) {
+        yield(f);
+    }
+
     /**
      * Ask the current task to pause with a reason object, that is responsible
      * for resuming the task when the reason (for pausing) is not valid any
@@ -488,6 +631,8 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
         try {
             assert (preferredResumeThread == -1 || preferredResumeThread == tid) : "Resumed "
                     + id + " in incorrect thread. ";
+            if (f.image != null)
+                f.thaw();
             // start execute. fiber is wound to the beginning.
             execute(f.begin());
 
@@ -499,6 +644,10 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
             setPauseReason(new TaskDoneReason(th));
             isDone = true;
         }
+        if (bucket >= 0) {
+            scheduler.affinity.done(bucket);
+            bucket = -1;
+        }
 
         if (isDone) {
             // inform on exit
@@ -518,6 +667,9 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
                     }
                 }
             }
+            // the scheduler still charges the slice to the group, so the pool waits for release
+            if (pool != null)
+                exited = true;
         } else {
             if (tid >= 0) { // it is null for generators
                 if (numActivePins > 0) {
@@ -530,7 +682,7 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
             }
 
             PauseReason pr = this.pauseReason;
-            running.set(false);
+            running = 0;
             // The task has been in "running" mode until now, and may have
             // missed
             // notifications to the pauseReason object (that is, it would have
@@ -547,6 +699,49 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
         }
     }
 
+    /**
+     * called when a task that belongs to a TaskPool has exited, before it goes back to the pool, to clear
+     * the fields that the next use sets, eg the payload, and any references that would keep garbage alive.
+     * the default does nothing
+     */
+    protected void recycle() {}
+
+    /**
+     * return the task to its pool if the slice that just ran was its last. called by the scheduler on the
+     * thread that ran the slice, once it's done with the slice, ie after charging it and before counting it
+     * complete, since reset clears the group and the pool can hand the task to another thread
+     */
+    void release() {
+        if (exited) {
+            exited = false;
+            pool.recycle(this);
+        }
+    }
+
+    /** clear the state of an exited task for reuse, leaving it done till revive, see TaskPool */
+    void reset() {
+        fiber.reset();
+        pauseReason = null;
+        exitResult = "OK";
+        synchronized (this) {
+            if (exitMBs != null) exitMBs.clear();
+        }
+        if (timer_new != null) timer_new.cancel();
+        preferredResumeThread = -1;
+        numActivePins = 0;
+        bucket = -1;
+        shard = -1;
+        priority = 0;
+        group = null;
+        affinity = null;
+    }
+
+    /** make a reset task startable again */
+    void revive() {
+        running = 0;
+        done = false;
+    }
+
     public ExitMsg joinb() {
         Mailbox<ExitMsg> mb = new Mailbox<>();
         informOnExit(mb);
@@ -573,7 +768,7 @@ public abstract class Task implements Runnable, EventSubscriber, Fiber.Worker {
     }
 
     public boolean getState() {
-        return running.get();
+        return running==1;
     }
     
     public static class Spawn<TT> extends Task {
@@ -0,0 +1,86 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * a pool of tasks that are reused once they exit, so that a server that runs a short task per request or
+ * connection doesn't allocate a task, fiber and timer each time. get() hands out an idle task, which is
+ * started (after setting its payload) like any other task. when it exits, its exit mailboxes are informed,
+ * and once the scheduler is done with its last slice Task.recycle() is called to clear the subclass's fields,
+ * the task's own state is reset, and it goes back to the pool
+ *
+ * each thread keeps a small cache of the tasks that exited on it, ie a worker reuses its own tasks without
+ * synchronization, and the rest go to a shared bounded queue so that a task that exits on a worker can be
+ * reused by another thread, eg the thread that accepts connections. tasks beyond the capacity are dropped
+ *
+ * a task's id is kept across uses, and a reference to a pooled task must not be kept past its exit, eg a
+ * join after the task has been reused waits for the next use. an idle task stays done, so a stale resume
+ * from its previous use, eg by a mailbox that it listened to, is ignored
+ */
+public class TaskPool<TT extends Task> {
+    private final Supplier<TT> factory;
+    private final int localSize;
+    private final ArrayBlockingQueue<TT> shared;
+    private final ThreadLocal<ArrayDeque<TT>> local = ThreadLocal.withInitial(ArrayDeque::new);
+    private final AtomicLong created = new AtomicLong(), reused = new AtomicLong(), dropped = new AtomicLong();
+
+    public TaskPool(Supplier<TT> factory) {
+        this(factory,1024,16);
+    }
+
+    /**
+     * @param factory creates a task when the pool is empty
+     * @param capacity the most idle tasks that are shared between threads
+     * @param localSize the most idle tasks cached by each thread
+     */
+    public TaskPool(Supplier<TT> factory,int capacity,int localSize) {
+        this.factory = factory;
+        this.localSize = localSize;
+        shared = new ArrayBlockingQueue<>(Math.max(capacity,1));
+    }
+
+    /** return an idle task, creating one if none are available */
+    public TT get() {
+        TT task = local.get().pollFirst();
+        if (task==null)
+            task = shared.poll();
+        if (task==null) {
+            created.incrementAndGet();
+            task = factory.get();
+            task.pool = this;
+            return task;
+        }
+        reused.incrementAndGet();
+        task.revive();
+        return task;
+    }
+
+    /** the number of tasks created by the factory */
+    public long created() { return created.get(); }
+    /** the number of times an idle task was handed out */
+    public long reused() { return reused.get(); }
+    /** the number of exited tasks that didn't fit in the pool */
+    public long dropped() { return dropped.get(); }
+
+    /** called for a pooled task that has exited, on the thread that ran its last slice, see Task.release */
+    void recycle(Task task) {
+        task.recycle();
+        task.reset();
+        @SuppressWarnings("unchecked")
+        TT idle = (TT) task;
+        ArrayDeque<TT> cache = local.get();
+        if (cache.size() < localSize)
+            cache.offerFirst(idle);
+        else if (!shared.offer(idle))
+            dropped.incrementAndGet();
+    }
+
+    public String toString() {
+        return "TaskPool(created=" + created() + ",reused=" + reused() + ",dropped=" + dropped() + ")";
+    }
+}
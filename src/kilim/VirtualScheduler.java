@@ -0,0 +1,182 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim;
+
+import kilim.nio.NioSelectorScheduler.RegistrationTask;
+import kilim.timerservice.TimerService;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * a scheduler that runs each slice of a task, ie each call to Task.run, on a new jdk virtual thread (java 21+),
+ * so that kilim fibers and virtual threads can be compared and mixed, eg a slice that makes a blocking call
+ * only ties up its virtual thread. the jdk's carrier pool does the load balancing, so the dispatch policy and
+ * the run-next slot don't apply
+ *
+ * slices run in lanes, and the lane id is the task id (Task.getTid), so ids are recycled but can exceed
+ * numThreads. a task that pauses while pinned, eg holding a kilim.ReentrantLock, keeps its virtual thread
+ * waiting in the lane and is resumed on that same thread
+ *
+ * virtual threads are created reflectively so that this compiles on older jdks, see isSupported
+ * select with -Dkilim.Scheduler.type=virtual (see Scheduler.make) or construct directly
+ */
+public class VirtualScheduler extends Scheduler implements TimerService.WatchdogContext {
+    private static final ThreadFactory virtual = factory("KilimVirtual:");
+
+    /** the number of tasks published but not yet completed */
+    private final AtomicInteger count = new AtomicInteger(0);
+    /** the number of slices that have been published but not started */
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final AtomicInteger ids = new AtomicInteger(0);
+    /** every lane by id, and the lanes that aren't running a slice or holding a pinned task */
+    private final ConcurrentHashMap<Integer,Lane> lanes = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Lane> free = new ConcurrentLinkedQueue<>();
+    /** virtual threads are daemons, so a platform thread keeps the jvm alive till shutdown like the other pools */
+    private final Thread keeper = new Thread(this::keep,"KilimVirtual");
+
+    public VirtualScheduler() {
+        if (virtual==null)
+            throw new UnsupportedOperationException("virtual threads require java 21 or later");
+        timerService = new TimerService();
+        timerService.defaultExec = this;
+        keeper.start();
+    }
+
+    private void keep() {
+        while (!shutdown.get())
+            LockSupport.park(this);
+    }
+
+    /** can virtual threads be created by this jvm */
+    public static boolean isSupported() { return virtual != null; }
+
+    private static ThreadFactory factory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> kind = Class.forName("java.lang.Thread$Builder");
+            builder = kind.getMethod("name",String.class,long.class).invoke(builder,prefix,0L);
+            return (ThreadFactory) kind.getMethod("factory").invoke(builder);
+        }
+        catch (Exception ex) { return null; }
+    }
+
+    /** the parallelism of the jdk's default carrier pool */
+    public int numThreads() { return Runtime.getRuntime().availableProcessors(); }
+
+    public void schedule(Task t) {
+        if (t instanceof RegistrationTask)
+            ((RegistrationTask) t).wake();
+        else
+            publish(t);
+    }
+
+    /** there are no workers to be affine to, so the key is ignored */
+    public void schedule(Object key,Task t) {
+        schedule(t);
+    }
+
+    /** each slice gets its own virtual thread, so there's nothing to batch */
+    public void scheduleAll(Task ... tasks) {
+        for (Task t : tasks)
+            schedule(t);
+    }
+
+    public void schedule(int index,Task t) {
+        if (t instanceof RegistrationTask)
+            assert (false);
+        else {
+            count.incrementAndGet();
+            waiting.incrementAndGet();
+            lanes.get(index).inbox.offer(t);
+        }
+    }
+
+    public void publish(TimerService.WatchdogTask dog) {
+        publish((Runnable) dog);
+    }
+
+    void publish(Runnable task) {
+        count.incrementAndGet();
+        waiting.incrementAndGet();
+        Lane lane = free.poll();
+        if (lane==null) {
+            lane = new Lane(ids.getAndIncrement());
+            lanes.put(lane.id,lane);
+        }
+        lane.first = task;
+        virtual.newThread(lane).start();
+    }
+
+    public boolean isEmpty() {
+        return count.get()==0;
+    }
+
+    public boolean isEmptyish() {
+        return waiting.get()==0;
+    }
+
+    protected boolean isIdle() {
+        return count.get()==0 && blocked.get()==0 && timerService.isEmptyLazy(this);
+    }
+
+    public void shutdown() {
+        super.shutdown();
+        LockSupport.unpark(keeper);
+        for (Lane lane : lanes.values()) {
+            Thread thread = lane.pinned;
+            if (thread != null)
+                thread.interrupt();
+        }
+    }
+
+    class Lane implements Runnable {
+        final int id;
+        /** the tasks resumed while pinned to this lane's thread */
+        final LinkedBlockingQueue<Runnable> inbox = new LinkedBlockingQueue<>();
+        /** the task for the next thread to start in this lane */
+        Runnable first;
+        /** the thread while it's waiting for a pinned task to resume, otherwise null */
+        volatile Thread pinned;
+
+        Lane(int id) { this.id = id; }
+
+        public void run() {
+            Runnable task = first;
+            first = null;
+            while (true) {
+                execute(task);
+                if (!(task instanceof Task) || ((Task) task).preferredResumeThread != id)
+                    break;
+                // the task is paused but pinned to this thread, so wait here for it to be resumed
+                pinned = Thread.currentThread();
+                try { task = inbox.take(); }
+                catch (InterruptedException ex) { return; }
+                finally { pinned = null; }
+            }
+            free.offer(this);
+        }
+
+        private void execute(Runnable task) {
+            waiting.decrementAndGet();
+            Group group = null;
+            if (task instanceof Task) {
+                ((Task) task).setTid(id);
+                group = ((Task) task).group;
+            }
+            long start = group==null ? 0 : System.nanoTime();
+            try { task.run(); }
+            catch (Throwable ex) { ex.printStackTrace(); }
+            if (group != null) group.charge(System.nanoTime() - start);
+            if (task instanceof Task)
+                ((Task) task).release();
+            timerService.trigger(VirtualScheduler.this);
+            if (count.decrementAndGet()==0)
+                timerService.idleLatch.signal();
+        }
+    }
+}
@@ -918,6 +918,11 @@ public class BasicBlock implements Comparable<BasicBlock> {
                         // pop args, push return value
                         MethodInsnNode min = ((MethodInsnNode) ain);
                         String desc = min.desc;
+                        if (flow.isPausableMethodInsn(min) && frame.numMonitorsActive > 0
+                                && MethodFlow.isPreemptCheck(min)) {
+                            flow.dropPreemptCheck(min);
+                            unsetFlag(PAUSABLE);
+                        }
                         if (flow.isPausableMethodInsn(min) && frame.numMonitorsActive > 0) {
                             throw new KilimException("Error: Can not call pausable nethods from within a synchronized block\n" +
                                     "Caller: " + this.flow.classFlow.name.replace('/', '.') + '.' + this.flow.name + this.flow.desc +
@@ -1450,6 +1455,11 @@ public class BasicBlock implements Comparable<BasicBlock> {
         return false;
     }
 
+    /** does the block start with a preemption check, see MethodFlow.visitJumpInsn */
+    public boolean isPreemptCheck() {
+        return MethodFlow.isPreemptCheck(getInstruction(startPos));
+    }
+
     boolean isInitialized() {
         return startPos >= 0 && endPos >=0; 
     }
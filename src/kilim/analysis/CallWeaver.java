@@ -9,7 +9,9 @@ import kilim.mirrors.CachedClassMirrors.ClassMirror;
 import kilim.mirrors.CachedClassMirrors.MethodMirror;
 import kilim.mirrors.ClassMirrorNotFoundException;
 import kilim.mirrors.Detector;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.TableSwitchInsnNode;
@@ -80,7 +82,7 @@ public class CallWeaver {
      */
     BasicBlock           bb;
 
-    private LabelNode    resumeLabel;
+    LabelNode            resumeLabel;
 
     LabelNode            callLabel;
 
@@ -105,13 +107,20 @@ public class CallWeaver {
     /** Memoized version of getNumArgs() */
     int                  numArgs = -1;
 
+    /**
+     * the local var that holds the receiver of a call to a functional interface, or -1 for other calls.
+     * see genStashCallee
+     */
+    private int          calleeVar = -1;
+
     private Detector detector;
 
     public CallWeaver(MethodWeaver mw, Detector d, BasicBlock aBB) {
         detector = d;
         methodWeaver = mw;
         bb = aBB;
-        callLabel = bb.startLabel;
+        // a preemption check is guarded at the start label, so the rewind must jump past the guard
+        callLabel = bb.isPreemptCheck() ? new LabelNode() : bb.startLabel;
         varUsage = new BitSet(2 * bb.flow.maxLocals);
         resumeLabel = bb.flow.getLabelAt(bb.startPos + 1);
         if (resumeLabel == null)
@@ -139,6 +148,10 @@ public class CallWeaver {
         varUsage.set(mw.getFiberVar());
         numVars = mw.getFiberVar() + 1; // knowing fiberVar is beyond anything
                                         // that's used
+        if (mw.getDepthVar() >= 0) {
+            varUsage.set(mw.getDepthVar());
+            numVars = mw.getDepthVar() + 1;
+        }
         mw.ensureMaxVars(numVars);
         Usage u = bb.usage;
         valInfoList = new ValInfoList();
@@ -319,17 +332,11 @@ public class CallWeaver {
      */
     void genCall(MethodVisitor mv) {
         mv.visitLabel(callLabel.getLabel());
+        MethodInsnNode mi = getMethodInsn();
+        if (isSAM(mi))
+            genStashCallee(mv);
         loadVar(mv, TOBJECT, methodWeaver.getFiberVar());
         mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "down", "()" + D_FIBER, false);
-        MethodInsnNode mi = getMethodInsn();
-        if (isSAM(mi)) {
-            ClassWeaver cw = methodWeaver.getClassWeaver();
-            SAMweaver sw = cw.getSAMWeaver(mi.owner, mi.name, mi.desc, mi.itf);
-            //System.out.println("SAM call to: " + mi.owner + mi.name + mi.desc);
-            //System.out.println("invokestatic: " + cw.getName() + " " + sw.getShimMethodName());
-            mi = new MethodInsnNode(INVOKESTATIC, cw.getName(), sw.getShimMethodName(), 
-                    sw.getShimDesc(), cw.isInterface());
-        }
         if (!mi.desc.contains(D_FIBER_LAST_ARG)) {
             // Don't add another fiberarg if it already has one. It'll already
             // have one if we have copied jsr instructions and modified the 
@@ -339,6 +346,58 @@ public class CallWeaver {
         mi.accept(mv);
     }
     
+    /**
+     * A call to the sole abstract method of a functional interface may land in a lambda, whose class is
+     * generated by the vm at run-time and so can't be woven. The body of the lambda is an ordinary method
+     * of the host class and is woven as usual, but the state that it saves doesn't hold the lambda object,
+     * which the rewind needs as the receiver for the call (see genRewind). So the receiver is kept in a
+     * local var across the call, and recorded in the callee's state by fiber.upCallee if the call pauses.
+     * The fast path is the same as for any other call, ie no shim frame and no extra work unless pausing.
+     * 
+     * <pre>
+     *   ... receiver, args on stack
+     *   xstore args to scratch vars (in reverse)
+     *   dup; astore calleeVar
+     *   xload args
+     * </pre>
+     * 
+     * If the receiver is "this", it's already in var 0 and nothing is stashed.
+     */
+    private void genStashCallee(MethodVisitor mv) {
+        Frame f = bb.startFrame;
+        int numBottom = getNumBottom();
+        if (!methodWeaver.isStatic() && f.getLocal(0) == f.getStack(numBottom)) {
+            calleeVar = 0;
+            return;
+        }
+        int len = getStackLen();
+        int [] vars = new int[len];
+        for (int i = len-1; i > numBottom; i--) {
+            Value v = f.getStack(i);
+            int vmt = VMType.toVmType(v.getTypeDesc());
+            vars[i] = allocVar(v.category());
+            storeVar(mv, vmt, vars[i]);
+        }
+        calleeVar = allocVar(1);
+        mv.visitInsn(DUP);
+        storeVar(mv, TOBJECT, calleeVar);
+        for (int i = numBottom+1; i < len; i++) {
+            Value v = f.getStack(i);
+            int vmt = VMType.toVmType(v.getTypeDesc());
+            loadVar(mv, vmt, vars[i]);
+            releaseVar(vars[i], v.category());
+        }
+    }
+
+    /** fiber.upCallee(receiver) for a call that is pausing, see genStashCallee */
+    private void genUpCallee(MethodVisitor mv) {
+        if (calleeVar == -1)
+            return;
+        loadVar(mv, TOBJECT, methodWeaver.getFiberVar());
+        loadVar(mv, TOBJECT, calleeVar);
+        mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "upCallee", "(" + D_OBJECT + ")V", false);
+    }
+
     /**
      * Is the given method the sole abstract method (modulo woven variants).
      */
@@ -410,6 +469,8 @@ public class CallWeaver {
         genUnwind(mv, unwindLabel);
         genRestore(mv, restoreLabel);
         resumeLabel.accept(mv);
+        if (calleeVar > 0)
+            releaseVar(calleeVar, 1);
     }
 
     /**
@@ -422,6 +483,7 @@ public class CallWeaver {
      */
     private void genUnwind(MethodVisitor mv, LabelNode unwindLabel) {
         unwindLabel.accept(mv);
+        genUpCallee(mv);
         // After the call returns, the stack would be left with numBottom plus
         // return value
 
@@ -449,6 +511,12 @@ public class CallWeaver {
         }
     }
 
+    /** reuse is opt-in, and needs a class literal, ie a classfile version of 49 or later */
+    private boolean reuseState() {
+        ClassWeaver cw = methodWeaver.getClassWeaver();
+        return cw.context.reuseState && (cw.classFlow.version & 0x00FF) >= 49;
+    }
+
     private String getReturnType() {
         return TypeDesc.getReturnTypeDesc(getMethodInsn().desc);
     }
@@ -468,6 +536,7 @@ public class CallWeaver {
      */
     private void genSave(MethodVisitor mv, LabelNode saveLabel) {
         saveLabel.accept(mv);
+        genUpCallee(mv);
 
         Frame f = bb.startFrame;
         // pop return value if any.
@@ -486,10 +555,38 @@ public class CallWeaver {
          * the method weaver's list. This allows us to do a switch in the
          * method's entry.
          */
+        if (isStateless()) {
+            // fiber.setStateless(pc, self), which reuses a state owned by the fiber
+            loadVar(mv, TOBJECT, methodWeaver.getFiberVar());
+            loadPC(mv);
+            if (bb.flow.isStatic())
+                mv.visitInsn(ACONST_NULL);
+            else
+                mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "setStateless", "(ILjava/lang/Object;)V", false);
+            genDummyReturn(mv);
+            return;
+        }
+        boolean reuse = reuseState();
+        Label alloc = new Label(), done = new Label();
+        if (reuse) {
+            // state = fiber.spare(S_X.class), ie the state last restored at this depth if it's an S_X
+            loadVar(mv, TOBJECT, methodWeaver.getFiberVar());
+            mv.visitLdcInsn(Type.getObjectType(stateClassName));
+            mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "spare", "(Ljava/lang/Class;)" + D_STATE, false);
+            mv.visitInsn(DUP);
+            mv.visitJumpInsn(IFNULL, alloc);
+            mv.visitTypeInsn(CHECKCAST, stateClassName);
+            mv.visitJumpInsn(GOTO, done);
+            mv.visitLabel(alloc);
+            mv.visitInsn(POP);
+        }
         mv.visitTypeInsn(NEW, stateClassName);
         mv.visitInsn(DUP); // 
         // call constructor
         mv.visitMethodInsn(INVOKESPECIAL, stateClassName, "<init>", "()V", false);
+        if (reuse)
+            mv.visitLabel(done);
         // save state in register
         int stateVar = allocVar(1);
         storeVar(mv, TOBJECT, stateVar);
@@ -499,13 +596,14 @@ public class CallWeaver {
             mv.visitVarInsn(ALOAD, 0); // for state.self == this
             mv.visitFieldInsn(PUTFIELD, STATE_CLASS, "self", D_OBJECT);
         }
-        int pc = methodWeaver.getPC(this);
-        loadVar(mv, TOBJECT, stateVar); // state.pc
-        if (pc < 6) {
-            mv.visitInsn(ICONST_0 + pc);
-        } else {
-            mv.visitIntInsn(BIPUSH, pc);
+        else if (reuse) {
+            // a reused state may hold the self of another frame
+            loadVar(mv, TOBJECT, stateVar);
+            mv.visitInsn(ACONST_NULL);
+            mv.visitFieldInsn(PUTFIELD, STATE_CLASS, "self", D_OBJECT);
         }
+        loadVar(mv, TOBJECT, stateVar); // state.pc
+        loadPC(mv);
         mv.visitFieldInsn(PUTFIELD, STATE_CLASS, "pc", D_INT);
 
         // First save bottom stack into state
@@ -550,9 +648,23 @@ public class CallWeaver {
         loadVar(mv, TOBJECT, stateVar);
         mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "setState", '(' + D_STATE + ")V", false);
         releaseVar(stateVar, 1);
+        genDummyReturn(mv);
+    }
+
+    private void loadPC(MethodVisitor mv) {
+        int pc = methodWeaver.getPC(this);
+        if (pc < 6) {
+            mv.visitInsn(ICONST_0 + pc);
+        } else {
+            mv.visitIntInsn(BIPUSH, pc);
+        }
+    }
+
+    /** return from the calling method, with a dummy value if it isn't void */
+    private void genDummyReturn(MethodVisitor mv) {
         // Figure out the return type of the calling method and issue the
         // appropriate xRETURN instruction
-        retType = TypeDesc.getReturnTypeDesc(bb.flow.desc);
+        String retType = TypeDesc.getReturnTypeDesc(bb.flow.desc);
         if (retType == D_VOID) {
             mv.visitInsn(RETURN);
         } else {
@@ -564,6 +676,16 @@ public class CallWeaver {
         }
     }
 
+    /**
+     * the frame has nothing to save but its pc and self, ie no live values and nothing under the call's args,
+     * eg a call in tail position (followed by a return) or one whose result is only combined with constants.
+     * such a frame is paused with a state that belongs to the fiber (see Fiber.setStateless) instead of
+     * allocating one, and nothing is read from the state when it resumes
+     */
+    boolean isStateless() {
+        return valInfoList.isEmpty() && getNumBottom() == 0;
+    }
+
     /**
      * Not yielding (resuming normally), but have stored state. We need to
      * restore from state before resuming. This is slightly more work than
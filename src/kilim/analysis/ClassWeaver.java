@@ -15,7 +15,6 @@ import org.objectweb.asm.tree.AnnotationNode;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -124,7 +123,7 @@ public class ClassWeaver {
                 // However, if it is a single abstract method (SAM) of a functional interface,
                 // then we invert the arrangement. We generate two method bodies as before,
                 // but the fiber'd version gets the "not woven" message. This preserves the 
-                // original method as the SAM. However, the weaver (see CallWeaver and SAMWeaver)
+                // original method as the SAM. However, the weaver (see MethodWeaver.transformIndyBootstrap)
                 // arranges it such that the invokedynamic instruction bridges the fiber'd version
                 // of the method with the body of the lambda expression. 
                 
@@ -138,11 +137,6 @@ public class ClassWeaver {
                 m.accept(cv);
             }
         }
-
-        // create shim methods (if any) to wrap SAM interface methods
-        for (SAMweaver sw: samWeavers) {
-            sw.accept(cv);
-        }
         
         // visits end
         cv.visitEnd();
@@ -262,21 +256,6 @@ public class ClassWeaver {
         return classFlow.isInterface();
     }
     
-    ArrayList<SAMweaver> samWeavers = new ArrayList<>();
-    SAMweaver getSAMWeaver(String owner, String methodName, String desc, boolean itf) {
-        SAMweaver sw = new SAMweaver(context,owner, methodName, desc, itf);
-        // intern
-        for (SAMweaver s: samWeavers) {
-            if (s.equals(sw)) {
-                return s; 
-            }
-        }
-        samWeavers.add(sw);
-        sw.setIndex(samWeavers.size());
-        
-        return sw;
-    }
-
     String getName() {
         return classFlow.name;
     }
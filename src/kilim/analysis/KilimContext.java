@@ -8,6 +8,19 @@ public class KilimContext {
     static public KilimContext DEFAULT = new KilimContext();
     
     public Detector detector;
+    /**
+     * weave a preemption check into the back-edge of each loop in a pausable method, so that a task that
+     * spins without pausing still yields its thread once its slice exceeds the budget (see Fiber.expired).
+     * off by default, enable with -Dkilim.preempt=true or the weaver's -p option
+     */
+    public boolean preempt = Boolean.getBoolean("kilim.preempt");
+    /**
+     * reuse the state object of a frame across pause cycles, ie a frame that pauses again at the same depth
+     * with the same state class overwrites the state that it was last restored from instead of allocating
+     * (see Fiber.spare). the fiber keeps one released state per depth reachable until it's reused or the
+     * task exits. off by default, enable with -Dkilim.reuseState=true or the weaver's -r option
+     */
+    public boolean reuseState = Boolean.getBoolean("kilim.reuseState");
     
     public KilimContext() {
         detector = new Detector(new CachedClassMirrors());
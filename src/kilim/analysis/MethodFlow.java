@@ -15,6 +15,7 @@ import java.util.*;
 
 import static kilim.Constants.NOT_PAUSABLE_CLASS;
 import static kilim.Constants.PAUSABLE_CLASS;
+import static kilim.Constants.TASK_CLASS;
 import static kilim.analysis.BasicBlock.*;
 import static org.objectweb.asm.Opcodes.*;
 
@@ -212,6 +213,67 @@ public class MethodFlow extends MethodNode {
         }
     }
     
+    /**
+     * with preemption enabled (see KilimContext.preempt), a call to Task.preempt() is inserted before each
+     * backward jump in a pausable method, ie at the back-edge of each loop, and MethodWeaver guards it with
+     * a check of the fiber's budget. the stack needn't be empty, since a call site saves the operand stack.
+     * a switch with a backward target, eg a state machine emitted by a compiler other than javac, is a
+     * back-edge too
+     */
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        if (opcode != JSR && isBackward(label))
+            visitPreemptCheck();
+        super.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        if (isBackward(dflt) || isBackward(labels))
+            visitPreemptCheck();
+        super.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        if (isBackward(dflt) || isBackward(labels))
+            visitPreemptCheck();
+        super.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    /** is preemption enabled for this method and the label already visited, ie a jump to it goes backward */
+    private boolean isBackward(Label label) {
+        return hasPausableAnnotation && !classFlow.isWoven && classFlow.context.preempt
+                && labelToPosMap.containsKey(getLabelNode(label));
+    }
+
+    private boolean isBackward(Label [] labels) {
+        for (Label label : labels)
+            if (isBackward(label))
+                return true;
+        return false;
+    }
+
+    private void visitPreemptCheck() {
+        visitMethodInsn(INVOKESTATIC, TASK_CLASS, "preempt", "()V", false);
+    }
+
+    /** is the instruction a preemption check inserted at a back-edge */
+    static boolean isPreemptCheck(AbstractInsnNode ain) {
+        if (ain.getOpcode() != INVOKESTATIC) return false;
+        MethodInsnNode min = (MethodInsnNode) ain;
+        return min.owner.equals(TASK_CLASS) && min.name.equals("preempt") && min.desc.equals("()V");
+    }
+
+    /**
+     * a preemption check can't pause while a monitor is held, so drop it, ie replace it with a nop
+     * and remove it from the pausable calls. the caller must clear the basic block's PAUSABLE flag
+     */
+    void dropPreemptCheck(MethodInsnNode min) {
+        pausableMethods.remove(min);
+        instructions.set(min, new InsnNode(NOP));
+    }
+
     @Override
     public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
         if (!classFlow.isWoven) {
@@ -45,6 +45,12 @@ public class MethodWeaver {
      * fiberVar.
      */
     private int                   fiberVar;
+
+    /**
+     * The slot after fiberVar holds the fiber's depth at entry if a catch handler covers a pausable call
+     * (see genException), else -1.
+     */
+    private int                   depthVar;
     private int                   numWordsInSig;
     private ArrayList<CallWeaver> callWeavers = new ArrayList<>(5);
 
@@ -56,7 +62,8 @@ public class MethodWeaver {
         this.methodFlow = mf;
         isPausable = mf.isPausable();
         fiberVar =  methodFlow.maxLocals;
-        maxVars = fiberVar + 1;
+        depthVar = !mf.isAbstract() && hasPausableHandlers() ? fiberVar + 1 : -1;
+        maxVars = depthVar < 0 ? fiberVar + 1 : depthVar + 1;
         maxStack = methodFlow.maxStack + 1; // plus Fiber
         this.isSAM = isSAM;
         if (!mf.isAbstract()) {
@@ -284,9 +291,30 @@ public class MethodWeaver {
                 break;
             }
         }
+        if (bb.isPreemptCheck())
+            genPreemptCheck(mv, bb, caw);
         caw.genCall(mv);
         caw.genPostCall(mv);
     }
+
+    /*
+     * A preemption check inserted at a loop back-edge (see MethodFlow.visitJumpInsn) only
+     * makes the call, ie yields, once the fiber's budget has expired. The rewind jumps to
+     * the call label, past the guard
+     * <pre>
+     *   load fiberVar
+     *   invokevirtual expired
+     *   ifeq RESUME
+     *   ... call site
+     * RESUME:
+     * </pre>
+     */
+    void genPreemptCheck(MethodVisitor mv, BasicBlock bb, CallWeaver caw) {
+        bb.startLabel.accept(mv);
+        loadVar(mv, TOBJECT, getFiberVar());
+        mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "expired", "()Z", false);
+        mv.visitJumpInsn(IFEQ, caw.resumeLabel.getLabel());
+    }
     
     /*
      * The Task.getCurrentTask() method is marked pausable to force
@@ -312,6 +340,14 @@ public class MethodWeaver {
         }
         return false;
     }
+    private boolean hasPausableHandlers() {
+        for (BasicBlock bb : methodFlow.getBasicBlocks()) {
+            if (!bb.isPausable() || bb.startFrame==null || bb.isGetCurrentTask()) continue;
+            if (!bb.handlers.isEmpty()) return true;
+        }
+        return false;
+    }
+
     private void createCallWeavers() {
         MethodFlow mf = methodFlow;
         for (BasicBlock bb : mf.getBasicBlocks()) {
@@ -334,6 +370,9 @@ public class MethodWeaver {
      *     aload lastVar
      *     dup
      *     astore fiberVar 
+     *     dup                       ;; only if a handler covers a pausable call
+     *     invokevirtual depth()
+     *     istore depthVar
      *     switch (fiber.pc) { 
      *       default: 0: START 
      *       1: F_PASS_DOWN 
@@ -361,6 +400,12 @@ public class MethodWeaver {
             mv.visitVarInsn(ASTORE, getFiberVar());
         }
         
+        if (depthVar >= 0) {
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "depth", "()I", false);
+            mv.visitVarInsn(ISTORE, depthVar);
+        }
+
         if (callWeavers.isEmpty()) {
           // No pausable method calls, but Task.getCurrentTask() is present. 
           // We don't need the rest of the prelude.
@@ -434,7 +479,7 @@ public class MethodWeaver {
      * 
      * ; Figure out which pausable method could have caused this.
      * 
-     * switch (fiber.upEx()) {
+     * switch (fiber.upEx(depthVar)) {
      *    0: goto NORMAL_EXCEPTION_HANDLING;
      *    2: goto RESTORE_F
      * }
@@ -451,7 +496,8 @@ public class MethodWeaver {
         bb.startLabel.accept(mv);
         LabelNode resumeLabel = new LabelNode();
         VMType.loadVar(mv, VMType.TOBJECT, getFiberVar());
-        mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "upEx", "()I", false);
+        mv.visitVarInsn(ILOAD, depthVar);
+        mv.visitMethodInsn(INVOKEVIRTUAL, FIBER_CLASS, "upEx", "(I)I", false);
         // fiber.pc is on stack
         LabelNode[] labels = new LabelNode[cwList.size()];
         int[] keys = new int[cwList.size()];
@@ -484,6 +530,10 @@ public class MethodWeaver {
         return fiberVar; // The first available slot
     }
 
+    int getDepthVar() {
+        return depthVar;
+    }
+
     void visitTryCatchBlocks(MethodVisitor mv) {
         MethodFlow mf = methodFlow;
         ArrayList<BasicBlock> bbs = mf.getBasicBlocks();
@@ -0,0 +1,59 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a reusable latch that lets threads wait for a scheduler to go quiet
+ * the pool and the timer service call signal() whenever the scheduler might have become idle,
+ * eg the pending count reached zero, and a waiter re-checks its condition each time the epoch advances
+ *
+ * signal() is a single volatile read when nobody is waiting
+ *
+ * usage:
+ * <pre>
+ *   latch.enter();
+ *   try {
+ *       for (long epoch = latch.epoch(); !condition(); epoch = latch.epoch())
+ *           latch.await(epoch,nanos);
+ *   }
+ *   finally { latch.exit(); }
+ * </pre>
+ */
+public class IdleLatch {
+    private volatile int waiters;
+    private volatile long epoch;
+
+    /** register a waiter, must be called before checking the condition */
+    public synchronized void enter() { waiters++; }
+
+    public synchronized void exit() { waiters--; }
+
+    /** the current epoch, read before checking the condition */
+    public long epoch() { return epoch; }
+
+    /** advance the epoch and wake any waiters */
+    public void signal() {
+        if (waiters==0) return;
+        synchronized (this) {
+            epoch++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * wait till the epoch advances past the value read before checking the condition
+     * @param epoch the epoch read before checking the condition
+     * @param nanos the maximum time to wait
+     * @return true if the epoch advanced, false on timeout
+     */
+    public synchronized boolean await(long epoch,long nanos) throws InterruptedException {
+        long end = System.nanoTime() + nanos;
+        while (this.epoch==epoch && nanos > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this,nanos);
+            nanos = end - System.nanoTime();
+        }
+        return this.epoch != epoch;
+    }
+}
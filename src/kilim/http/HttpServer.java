@@ -7,6 +7,7 @@
 package kilim.http;
 
 import kilim.Scheduler;
+import kilim.TaskPool;
 import kilim.nio.NioSelectorScheduler;
 import kilim.nio.NioSelectorScheduler.SessionFactory;
 import kilim.nio.SessionTask;
@@ -42,15 +43,18 @@ public class HttpServer {
     nio = new NioSelectorScheduler();
     listen(port, new Factory(handler), Scheduler.getDefaultScheduler());
   }
+  /** a session factory that reuses the sessions of closed connections, see TaskPool */
   public static class Factory implements SessionFactory {
       HttpSession.StringRouter handler;
+      final TaskPool<HttpSession.StringSession> pool;
 
       public Factory(HttpSession.StringRouter handler) {
           this.handler = handler;
+          pool = new TaskPool<>(() -> new HttpSession.StringSession(handler));
       }
       
       public SessionTask get() {
-          return new HttpSession.StringSession(handler);
+          return pool.get();
       }
   }
   
@@ -79,12 +79,13 @@ public class HttpSession extends SessionTask {
     }
     public static class StringSession extends HttpSession {
         StringRouter handler;
+        // reused across requests, and across connections when the session is pooled
+        final HttpRequest req = new HttpRequest();
+        final HttpResponse resp = new HttpResponse();
         public StringSession(StringRouter handler) { this.handler = handler; }
         public void execute() throws Exception {
             try {
-                // We will reuse the req and resp objects
-                HttpRequest req = new HttpRequest();
-                HttpResponse resp = new HttpResponse();
+                resp.reuse();
                 while (true) {
                     super.readRequest(req);
                     if (req.keepAlive())
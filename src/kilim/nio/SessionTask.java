@@ -16,4 +16,9 @@ public class SessionTask extends Task {
       endpoint.close();
     }
   }
+
+  /** the endpoint is set for each use of a pooled session, see TaskPool */
+  protected void recycle() {
+    endpoint = null;
+  }
 }
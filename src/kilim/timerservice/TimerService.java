@@ -3,18 +3,22 @@
 package kilim.timerservice;
 
 import kilim.*;
+import kilim.concurrent.IdleLatch;
 import kilim.concurrent.MPSCQueue;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
 public class TimerService {
     private final MPSCQueue<Timer> timerQueue;
+    /** the timers drained from the queue by doTrigger, which holds the lock, cleared as they're handled */
+    private final Timer[] buf = new Timer[100];
     private final TimerPriorityHeap timerHeap;
-    private ScheduledExecutorService timerProxy;
+    private final ScheduledExecutorService timerProxy;
+    /** false if the proxy is borrowed from another service, which shuts it down */
+    private final boolean ownsProxy;
     final private Lock lock;
     private static boolean debugStats = false;
     /** a recent, but not necessarily the most recent, watchdog */
@@ -24,19 +28,51 @@ public class TimerService {
     private static volatile int c1, c2, c3;
 
     public TimerService() {
+        this(new IdleLatch(),Executors.newSingleThreadScheduledExecutor(),true);
+    }
+
+    /**
+     * create a timer service that shares the idle latch and the proxy thread of another service, eg one per
+     * shard, so that the services of a scheduler only start one extra thread. the proxy is shut down with the
+     * other service
+     */
+    public TimerService(TimerService shared) {
+        this(shared.idleLatch,shared.timerProxy,false);
+    }
+
+    private TimerService(IdleLatch idleLatch,ScheduledExecutorService timerProxy,boolean ownsProxy) {
+        this.idleLatch = idleLatch;
+        this.timerProxy = timerProxy;
+        this.ownsProxy = ownsProxy;
         timerHeap = new TimerPriorityHeap();
         timerQueue = new MPSCQueue<>(Integer.getInteger("kilim.maxpendingtimers", 100000));
-        timerProxy = Executors.newSingleThreadScheduledExecutor();
         lock = new java.util.concurrent.locks.ReentrantLock();
     }
 
     public void shutdown() {
-        timerProxy.shutdown();
+        if (ownsProxy)
+            timerProxy.shutdown();
         if (debugStats)
             System.out.format("timerservice: %d %d %d\n",c1,c2,c3);
     }
 
-    public ThreadPoolExecutor defaultExec;
+    /**
+     * the hooks into the executing pool that the timer service needs,
+     * ie to check for idleness and to wake a thread that can then trigger the timers
+     */
+    public interface WatchdogContext {
+        /** no tasks are either queued or running */
+        boolean isEmpty();
+        /** the queues are empty, with the semantics of AffineThreadPool.isEmptyish */
+        boolean isEmptyish();
+        /** schedule the watchdog to run on a pool thread */
+        void publish(WatchdogTask dog);
+    }
+
+    public WatchdogContext defaultExec;
+
+    /** signaled by the pool and the timer service when the scheduler may have gone idle */
+    public final IdleLatch idleLatch;
     
     // todo: verify that timer rechedule is thread safe
     // ie, under heavy load, can moving a timer cause it to be missed ?
@@ -55,32 +91,19 @@ public class TimerService {
     /**
      * return true if empty at a particular moment during the call
      *  allowing false negatives if operations are ongoing
+     * holding the lock excludes timers that are in flight between the queue and the heap
      */
-    public boolean isEmptyLazy(ThreadPoolExecutor executor) {
-        return empty() && new Empty().check(executor);
-    }
-    private class Empty implements EventSubscriber {
-        boolean empty, done;
-        ThreadPoolExecutor executor;
-        @Override
-        public void onEvent(EventPublisher ep,Event e) {
-            empty = AffineThreadPool.isEmptyProxy(executor) && empty();
-            done = true;
-            synchronized (this) { this.notify(); }
-        }
-        boolean check(ThreadPoolExecutor executor) {
-            this.executor = executor;
-            if (! timerQueue.offer(new kilim.timerservice.Timer(this)))
-                return false;
-            trigger(executor);
-            synchronized (this) {
-                try { if (!done) this.wait(); } catch (InterruptedException ex) {}
-            }
-            return empty;
+    public boolean isEmptyLazy(WatchdogContext executor) {
+        if (!empty()) return false;
+        lock.lock();
+        try {
+            doTrigger(System.currentTimeMillis());
+            return empty() && executor.isEmpty();
         }
+        finally { lock.unlock(); }
     }
     
-    public void trigger(final ThreadPoolExecutor executor) {
+    public void trigger(final WatchdogContext executor) {
         int maxtry = 5;
 
         long clock = System.currentTimeMillis(), sched = 0;
@@ -93,12 +116,14 @@ public class TimerService {
             } finally { lock.unlock(); }
             clock = System.currentTimeMillis();
         }
-        if (! Scheduler.getDefaultScheduler().isEmptyish()) return;
+        if (retry > 0 && empty())
+            idleLatch.signal();
+        if (! executor.isEmptyish()) return;
 
         WatchdogTask dragon = argos;
 
         if (retry==maxtry) {
-            AffineThreadPool.publish(executor,argos = new WatchdogTask(0));
+            executor.publish(argos = new WatchdogTask(0));
             c1++;
         }
         else if (sched > 0 & (dragon.done | sched < dragon.time)) {
@@ -114,7 +139,7 @@ public class TimerService {
             t.onHeap = false;
             timerHeap.poll();
         }
-        Timer[] buf = new Timer[100];
+        Timer[] buf = this.buf;
         timerQueue.fill(buf);
         int i = 0;
         do {
@@ -150,23 +175,23 @@ public class TimerService {
         return 0L;
     }
     private class Watcher implements Runnable {
-        ThreadPoolExecutor executor;
+        WatchdogContext executor;
         WatchdogTask dog;
-        Watcher(ThreadPoolExecutor $executor,long time) { executor = $executor; dog = new WatchdogTask(time); }
+        Watcher(WatchdogContext $executor,long time) { executor = $executor; dog = new WatchdogTask(time); }
         @Override
         public void run() {
             if (! launch()) { dog.done = true; launch(); }
         }
         private boolean launch() {
             WatchdogTask hund = argos;
-            if ((dog.time <= hund.time | hund.done) && Scheduler.getDefaultScheduler().isEmptyish()) {
-                AffineThreadPool.publish(executor,dog);
+            if ((dog.time <= hund.time | hund.done) && executor.isEmptyish()) {
+                executor.publish(dog);
                 return true;
             }
             return false;
         }
     }
-    static class WatchdogTask implements Runnable {
+    public static class WatchdogTask implements Runnable {
         volatile boolean done;
         final long time;
         public WatchdogTask(long $time) { time = $time; }
@@ -31,6 +31,8 @@ public class Weaver {
     public static boolean verbose = true;
     public static boolean force = false;
     public static boolean proxy = true;
+    public static boolean preempt = Boolean.getBoolean("kilim.preempt");
+    public static boolean reuseState = Boolean.getBoolean("kilim.reuseState");
     public static Pattern excludePattern = null;
     static int err = 0;
 
@@ -61,7 +63,9 @@ public class Weaver {
      * <li>-f: force, write output even if output file is newer than source</li>
      * <li>-c: don't add source class list to the classpath</li>
      * <li>-h: print help info</li>
+     * <li>-p: preempt, insert a budget check at the back-edge of each loop in a pausable method</li>
      * <li>-q: quiet</li>
+     * <li>-r: reuse the state object of a frame across pauses instead of allocating one per pause</li>
      * <li>-x regex: exclude, skip classes matching regex</li>
      * </ul>
      * 
@@ -95,6 +99,8 @@ public class Weaver {
         }
         else
             weaver = new Weaver(null);
+        weaver.context.preempt = preempt;
+        weaver.context.reuseState = reuseState;
 
         String currentName = null;
         for (String name : names) {
@@ -230,6 +236,8 @@ public class Weaver {
         System.err.println("                    -x <regex> : exclude all classes matching regex");
         System.err.println("                    -f         : weave even if up to date");
         System.err.println("                    -c         : don't add targets to classpath");
+        System.err.println("                    -p         : insert preemption checks in loops");
+        System.err.println("                    -r         : reuse frame states across pauses");
         System.exit(1);
     }
 
@@ -254,6 +262,12 @@ public class Weaver {
                 case "-c":
                     proxy = false;
                     break;
+                case "-p":
+                    preempt = true;
+                    break;
+                case "-r":
+                    reuseState = true;
+                    break;
                 case "-h":
                     help();
                     break;
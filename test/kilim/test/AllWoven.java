@@ -24,7 +24,13 @@ public class AllWoven extends TestSuite {
         ret.addTestSuite(TestYieldJSR.class);
         ret.addTestSuite(TestMailbox.class);
         ret.addTestSuite(TestLock.class);
+        ret.addTestSuite(TestScheduler.class);
+        ret.addTestSuite(TestBlocking.class);
+        ret.addTestSuite(TestCheckpoint.class);
+        ret.addTestSuite(TestHibernator.class);
         ret.addTestSuite(TestGenerics.class);
+        ret.addTestSuite(TestGenerator.class);
+        ret.addTestSuite(TestInvoker.class);
         ret.addTestSuite(TestIO.class);
         ret.addTestSuite(TestHTTP.class);
         return ret;
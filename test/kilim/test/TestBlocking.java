@@ -0,0 +1,105 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.test;
+
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import junit.framework.TestCase;
+import kilim.Offload;
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.Task;
+
+import static kilim.test.TestScheduler.runAll;
+
+public class TestBlocking extends TestCase {
+
+    public void testResult() {
+        Scheduler s = new Scheduler(1);
+        runAll(s,new ResultTask());
+        s.shutdown();
+    }
+
+    static class ResultTask extends Task {
+        public void execute() throws Pausable, Exception {
+            Thread worker = Thread.currentThread();
+            Thread thread = Task.blocking(() -> {
+                Thread.sleep(20);
+                return Thread.currentThread();
+            });
+            assertNotSame(worker,thread);
+            try {
+                Task.blocking(() -> { throw new IOException("expected"); });
+                fail("no exception");
+            }
+            catch (IOException ex) {
+                assertEquals("expected",ex.getMessage());
+            }
+            Odd odd = new Odd();
+            try {
+                Task.blocking(() -> { sneaky(odd); return null; });
+                fail("no exception");
+            }
+            catch (UndeclaredThrowableException ex) {
+                assertSame(odd,ex.getCause());
+            }
+        }
+    }
+
+    /** a throwable that's neither an Exception nor an Error */
+    static class Odd extends Throwable {}
+
+    @SuppressWarnings("unchecked")
+    static <TT extends Throwable> void sneaky(Throwable ex) throws TT {
+        throw (TT) ex;
+    }
+
+    /** blocking calls from several tasks overlap instead of serializing on the single worker */
+    public void testOverlap() {
+        Scheduler s = new Scheduler(1);
+        Task [] tasks = new Task[5];
+        for (int ii=0; ii < tasks.length; ii++)
+            tasks[ii] = new SleepTask(null,200);
+        long start = System.currentTimeMillis();
+        runAll(s,tasks);
+        long delay = System.currentTimeMillis() - start;
+        assertTrue("delay: " + delay,delay < 600);
+        s.shutdown();
+    }
+
+    /** a task waiting on a blocking call keeps the scheduler from going idle */
+    public void testIdle() {
+        Scheduler s = new Scheduler(1);
+        Task task = new SleepTask(null,200);
+        task.setScheduler(s);
+        task.start();
+        assertTrue(s.awaitIdle(10000));
+        assertTrue(task.isDone());
+        s.idledown();
+        assertTrue(s.isShutdown());
+    }
+
+    public void testSaturated() {
+        Offload offload = new Offload(1,1,60);
+        Scheduler s = new Scheduler(1);
+        runAll(s,new SleepTask(offload,100),new SleepTask(offload,100),new SleepTask(offload,100));
+        assertEquals(2,offload.submitted());
+        assertEquals(1,offload.peakQueued());
+        assertEquals(1,offload.inlined());
+        assertEquals(0,offload.queued());
+        offload.shutdown();
+        s.shutdown();
+    }
+
+    static class SleepTask extends Task {
+        Offload offload;
+        long delay;
+        SleepTask(Offload offload,long delay) { this.offload = offload; this.delay = delay; }
+        public void execute() throws Pausable, Exception {
+            if (offload==null)
+                Task.blocking(() -> { Thread.sleep(delay); return null; });
+            else
+                offload.call(() -> { Thread.sleep(delay); return null; });
+        }
+    }
+}
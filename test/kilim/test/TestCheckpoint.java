@@ -0,0 +1,98 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.test;
+
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import junit.framework.TestCase;
+import kilim.Checkpoint;
+import kilim.ExitMsg;
+import kilim.Mailbox;
+import kilim.Pausable;
+import kilim.PauseReason;
+import kilim.Scheduler;
+import kilim.Task;
+
+public class TestCheckpoint extends TestCase {
+    /** stays paused till resumed explicitly */
+    static final PauseReason held = t -> true;
+
+    static long expected() {
+        long sum = 0;
+        for (int i = 0; i < 10; i++)
+            sum += ("x" + i).length() + (long) (i*1.5) + 3L*i + 7;
+        return sum;
+    }
+
+    /** the rebuilt task and the original both continue from the pause to the same result */
+    public void testRestore() throws Exception {
+        Scheduler s = new Scheduler(1);
+        Counter task = new Counter(7);
+        Mailbox<ExitMsg> exit = new Mailbox<>();
+        task.setScheduler(s).setPriority(2);
+        task.informOnExit(exit);
+        task.start();
+        awaitPaused(task);
+
+        byte [] bytes = Checkpoint.write(task);
+        Task copy = Checkpoint.read(bytes);
+        assertNotSame(task,copy);
+        assertTrue(copy.id() != task.id());
+        assertEquals(2,copy.getPriority());
+        assertTrue(task.getPauseReason()==held);
+
+        Mailbox<ExitMsg> copyExit = new Mailbox<>();
+        copy.setScheduler(s);
+        copy.informOnExit(copyExit);
+        copy.start();
+        ExitMsg msg = copyExit.getb(5000);
+        assertNotNull(msg);
+        assertEquals(expected(),msg.result);
+
+        task.resume();
+        msg = exit.getb(5000);
+        assertNotNull(msg);
+        assertEquals(expected(),msg.result);
+        s.shutdown();
+    }
+
+    public void testNotSerializable() throws Exception {
+        Task task = new Task() {};
+        try {
+            Checkpoint.write(task);
+            fail("wrote a task that isn't serializable");
+        }
+        catch (NotSerializableException ex) {}
+    }
+
+    static void awaitPaused(Task task) throws InterruptedException {
+        long limit = System.currentTimeMillis() + 5000;
+        while (task.getPauseReason() != held || task.getState()) {
+            assertTrue(System.currentTimeMillis() < limit);
+            Thread.sleep(1);
+        }
+    }
+
+    static class Counter extends Task implements Serializable {
+        int offset;
+        Counter(int offset) { this.offset = offset; }
+
+        public void execute() throws Pausable {
+            long sum = 0;
+            for (int i = 0; i < 10; i++)
+                sum += step(i,"x" + i,i*1.5);
+            Task.exit(sum);
+        }
+
+        long step(int i,String s,double d) throws Pausable {
+            long triple = scale(i,3L);
+            return s.length() + (long) d + triple + offset;
+        }
+
+        static long scale(int i,long factor) throws Pausable {
+            if (i==5)
+                Task.pause(held);
+            return i*factor;
+        }
+    }
+}
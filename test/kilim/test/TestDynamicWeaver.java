@@ -1,13 +1,22 @@
 package kilim.test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 
 import junit.framework.TestCase;
+import kilim.ExitMsg;
+import kilim.Mailbox;
+import kilim.Scheduler;
+import kilim.Task;
 import kilim.analysis.ClassInfo;
 import kilim.tools.Javac;
 import kilim.tools.Weaver;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 public class TestDynamicWeaver extends TestCase {
     /**
@@ -40,6 +49,75 @@ public class TestDynamicWeaver extends TestCase {
         "}";
 
 
+    /** a task that spins without pausing, and a task that stops it */
+    String spin =
+        "package code3;" +
+        "public class Spin extends kilim.Task {" +
+        "    public volatile boolean stop;" +
+        "    public void execute() throws kilim.Pausable {" +
+        "        while (!stop) {}" +
+        "    }" +
+        "    public static class Stop extends kilim.Task {" +
+        "        public Spin spin;" +
+        "        public void execute() throws kilim.Pausable { spin.stop = true; }" +
+        "    }" +
+        "}";
+
+    /** a task that pauses repeatedly at several depths, in instance and static frames */
+    String loop =
+        "package code4;" +
+        "public class Loop extends kilim.Task {" +
+        "    public void execute() throws kilim.Pausable {" +
+        "        long sum = 0;" +
+        "        for (int i = 0; i < 100; i++)" +
+        "            sum += add(i, \"x\" + i) + twice(i);" +
+        "        exit(sum);" +
+        "    }" +
+        "    long add(int i, String s) throws kilim.Pausable {" +
+        "        kilim.Task.yield();" +
+        "        return i + s.length();" +
+        "    }" +
+        "    static int twice(int i) throws kilim.Pausable {" +
+        "        double d = i;" +
+        "        kilim.Task.yield();" +
+        "        kilim.Task.yield();" +
+        "        return (int) (2*d);" +
+        "    }" +
+        "}";
+
+    String tail =
+        "package code5;" +
+        "public class Tail extends kilim.Task {" +
+        "    public void execute() throws kilim.Pausable {" +
+        "        long sum = 0;" +
+        "        for (int i = 0; i < 10; i++)" +
+        "            sum += down(50 + i) + chain(i, 50) + up(20);" +
+        "        exit(sum);" +
+        "    }" +
+        "    static int down(int n) throws kilim.Pausable {" +
+        "        if (n == 0) {" +
+        "            kilim.Task.yield();" +
+        "            return 1;" +
+        "        }" +
+        "        return down(n - 1);" +
+        "    }" +
+        "    static int up(int n) throws kilim.Pausable {" +
+        "        if (n == 0) {" +
+        "            kilim.Task.yield();" +
+        "            return 0;" +
+        "        }" +
+        "        return up(n - 1) + 1;" +
+        "    }" +
+        "    int chain(int i, int n) throws kilim.Pausable {" +
+        "        if (n == 0) {" +
+        "            kilim.Task.yield();" +
+        "            return i;" +
+        "        }" +
+        "        return chain(i, n - 1);" +
+        "    }" +
+        "}";
+
+
     public List<ClassInfo> compile() throws Exception {
         List<ClassInfo> classes = Javac.compile(Arrays.asList(code1, code2));
         assertTrue(classes.size() == 4);
@@ -88,6 +166,164 @@ public class TestDynamicWeaver extends TestCase {
         }
     }
     
+    static boolean refersToPreempt(ClassInfo cl) {
+        return new String(cl.bytes,java.nio.charset.StandardCharsets.ISO_8859_1).contains("preempt");
+    }
+
+    /** the spinning task must yield at the loop back-edge, or the stopper never runs on the single thread */
+    public void testPreempt() throws Exception {
+        List<ClassInfo> classes = Javac.compile(Arrays.asList(spin));
+        for (ClassInfo cl : new Weaver(null).weave(classes))
+            assertFalse(cl.className,refersToPreempt(cl));
+
+        Weaver weaver = new Weaver(null);
+        weaver.context.preempt = true;
+        TestClassLoader cll = new TestClassLoader();
+        for (ClassInfo cl : weaver.weave(classes)) {
+            if (cl.className.equals("code3.Spin"))
+                assertTrue(refersToPreempt(cl));
+            try { cll.loadClass(cl.className); }
+            catch (ClassNotFoundException ex) { cll.load(cl); }
+        }
+
+        Scheduler sched = new Scheduler(1);
+        Task spinner = (Task) cll.loadClass("code3.Spin").newInstance();
+        Task stopper = (Task) cll.loadClass("code3.Spin$Stop").newInstance();
+        stopper.getClass().getField("spin").set(stopper,spinner);
+        Mailbox<ExitMsg> exit = new Mailbox<>();
+        spinner.informOnExit(exit);
+        spinner.setScheduler(sched).start();
+        stopper.setScheduler(sched).start();
+        assertNotNull("spinning task wasn't preempted",exit.getb(5000));
+        sched.shutdown();
+    }
+
+    String stop =
+        "package code6;" +
+        "public class Stop extends kilim.Task {" +
+        "    public Object spin;" +
+        "    public void execute() throws kilim.Pausable, Exception {" +
+        "        spin.getClass().getField(\"stop\").setBoolean(spin,true);" +
+        "    }" +
+        "}";
+
+    /**
+     * a task that spins in a loop whose back-edge is a switch, ie while (!stop) with the test and the jump
+     * back folded into a single tableswitch or lookupswitch, which javac doesn't emit but other compilers can
+     */
+    static ClassInfo switchSpin(String name,boolean lookup) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8,Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,name,null,"kilim/Task",null);
+        cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_VOLATILE,"stop","Z",null,null).visitEnd();
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC,"<init>","()V",null,null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD,0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL,"kilim/Task","<init>","()V",false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0,0);
+        mv.visitEnd();
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC,"execute","()V",null,new String[] { "kilim/Pausable" });
+        Label top = new Label(), done = new Label();
+        mv.visitCode();
+        mv.visitLabel(top);
+        mv.visitVarInsn(Opcodes.ALOAD,0);
+        mv.visitFieldInsn(Opcodes.GETFIELD,name,"stop","Z");
+        if (lookup)
+            mv.visitLookupSwitchInsn(done,new int[] { 0 },new Label[] { top });
+        else
+            mv.visitTableSwitchInsn(0,0,done,top);
+        mv.visitLabel(done);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0,0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return new ClassInfo(name,cw.toByteArray());
+    }
+
+    /** as testPreempt, but the back-edge of the spinning loop is a switch */
+    public void testPreemptSwitch() throws Exception {
+        for (boolean lookup : new boolean[] { false, true }) {
+            List<ClassInfo> classes = new ArrayList<>(Javac.compile(Arrays.asList(stop)));
+            classes.add(switchSpin("code6/SwitchSpin",lookup));
+            Weaver weaver = new Weaver(null);
+            weaver.context.preempt = true;
+            TestClassLoader cll = new TestClassLoader();
+            for (ClassInfo cl : weaver.weave(classes)) {
+                if (cl.className.equals("code6.SwitchSpin"))
+                    assertTrue(refersToPreempt(cl));
+                try { cll.loadClass(cl.className); }
+                catch (ClassNotFoundException ex) { cll.load(cl); }
+            }
+
+            Scheduler sched = new Scheduler(1);
+            Task spinner = (Task) cll.loadClass("code6.SwitchSpin").newInstance();
+            Task stopper = (Task) cll.loadClass("code6.Stop").newInstance();
+            stopper.getClass().getField("spin").set(stopper,spinner);
+            Mailbox<ExitMsg> exit = new Mailbox<>();
+            spinner.informOnExit(exit);
+            spinner.setScheduler(sched).start();
+            stopper.setScheduler(sched).start();
+            assertNotNull("spinning task wasn't preempted, lookup: " + lookup,exit.getb(5000));
+            sched.shutdown();
+        }
+    }
+
+    /** a frame that pauses again must see its own values, whether its state is reused or not */
+    public void testReuseState() throws Exception {
+        List<ClassInfo> classes = Javac.compile(Arrays.asList(loop));
+        long expected = 0;
+        for (int i = 0; i < 100; i++)
+            expected += i + ("x" + i).length() + 2*i;
+        for (boolean reuse : new boolean[] { false, true }) {
+            Weaver weaver = new Weaver(null);
+            weaver.context.reuseState = reuse;
+            TestClassLoader cll = new TestClassLoader();
+            for (ClassInfo cl : weaver.weave(classes)) {
+                if (cl.className.equals("code4.Loop"))
+                    assertEquals(reuse,new String(cl.bytes,java.nio.charset.StandardCharsets.ISO_8859_1).contains("spare"));
+                try { cll.loadClass(cl.className); }
+                catch (ClassNotFoundException ex) { cll.load(cl); }
+            }
+            Scheduler sched = new Scheduler(1);
+            Task task = (Task) cll.loadClass("code4.Loop").newInstance();
+            Mailbox<ExitMsg> exit = new Mailbox<>();
+            task.informOnExit(exit);
+            task.setScheduler(sched).start();
+            ExitMsg msg = exit.getb(5000);
+            assertNotNull(msg);
+            assertEquals(expected,msg.result);
+            sched.shutdown();
+        }
+    }
+
+    /**
+     * frames with nothing to save, eg pausable calls in tail position, pause with the fiber's own states and
+     * still unwind and rewind correctly
+     */
+    public void testStateless() throws Exception {
+        List<ClassInfo> classes = Javac.compile(Arrays.asList(tail));
+        for (boolean reuse : new boolean[] { false, true }) {
+            Weaver weaver = new Weaver(null);
+            weaver.context.reuseState = reuse;
+            TestClassLoader cll = new TestClassLoader();
+            for (ClassInfo cl : weaver.weave(classes)) {
+                if (cl.className.equals("code5.Tail"))
+                    assertTrue(new String(cl.bytes,java.nio.charset.StandardCharsets.ISO_8859_1).contains("setStateless"));
+                try { cll.loadClass(cl.className); }
+                catch (ClassNotFoundException ex) { cll.load(cl); }
+            }
+            Scheduler sched = new Scheduler(1);
+            Task task = (Task) cll.loadClass("code5.Tail").newInstance();
+            Mailbox<ExitMsg> exit = new Mailbox<>();
+            task.informOnExit(exit);
+            task.setScheduler(sched).start();
+            ExitMsg msg = exit.getb(5000);
+            assertNotNull(msg);
+            assertEquals(10L + 45 + 200,msg.result);
+            sched.shutdown();
+        }
+    }
+
     static class TestClassLoader extends ClassLoader {
         public void load(ClassInfo cl) {
             Class<?> c = super.defineClass(cl.className, cl.bytes, 0, cl.bytes.length);
@@ -0,0 +1,68 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.test;
+
+import java.util.NoSuchElementException;
+import junit.framework.TestCase;
+import kilim.DoubleGenerator;
+import kilim.IntGenerator;
+import kilim.LongGenerator;
+import kilim.Pausable;
+
+public class TestGenerator extends TestCase {
+    /** every int is a value, including 0, and the generator ends when execute returns */
+    public void testInt() {
+        IntGenerator gen = new IntGenerator() {
+            public void execute() throws Pausable {
+                for (int ii=-2; ii <= 2; ii++)
+                    this.yield(ii);
+            }
+        };
+        int sum = 0, num = 0;
+        for (int val; gen.hasNext(); num++)
+            sum += val = gen.nextInt();
+        assertEquals(5,num);
+        assertEquals(0,sum);
+        assertFalse(gen.hasNext());
+        try {
+            gen.nextInt();
+            fail("no exception");
+        }
+        catch (NoSuchElementException ex) {}
+    }
+
+    public void testLong() {
+        LongGenerator gen = new LongGenerator() {
+            public void execute() throws Pausable {
+                long val = 1;
+                for (int ii=0; ii < 40; ii++)
+                    this.yield(val *= 3);
+            }
+        };
+        long [] last = new long[2];
+        assertEquals(3L,gen.nextLong());
+        gen.forEachRemaining((long val) -> { last[0] = val; last[1]++; });
+        assertEquals(39,last[1]);
+        long expected = 1;
+        for (int ii=0; ii < 40; ii++) expected *= 3;
+        assertEquals(expected,last[0]);
+    }
+
+    public void testDouble() {
+        DoubleGenerator gen = new DoubleGenerator() {
+            public void execute() throws Pausable {
+                this.yield(0.5);
+                this.yield(Double.NaN);
+                this.yield(-0.0);
+            }
+        };
+        double sum = 0;
+        int num = 0;
+        for (double val : (Iterable<Double>) gen) {
+            num++;
+            if (!Double.isNaN(val)) sum += val;
+        }
+        assertEquals(3,num);
+        assertEquals(0.5,sum);
+    }
+}
@@ -0,0 +1,88 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.test;
+
+import java.io.File;
+import junit.framework.TestCase;
+import kilim.ExitMsg;
+import kilim.Hibernator;
+import kilim.Mailbox;
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.Task;
+
+public class TestHibernator extends TestCase {
+
+    public void testDirect() throws Exception {
+        check(new Hibernator(0));
+    }
+
+    public void testMapped() throws Exception {
+        File file = File.createTempFile("kilim",".hib");
+        file.deleteOnExit();
+        check(new Hibernator(0,file));
+    }
+
+    /** tasks paused on a mailbox are hibernated by the second sweep and thawed by the messages that wake them */
+    void check(Hibernator hib) throws Exception {
+        Scheduler s = new Scheduler(2);
+        int num = 50;
+        Adder [] tasks = new Adder[num];
+        Mailbox<ExitMsg> exit = new Mailbox<>(num);
+        for (int ii=0; ii < num; ii++) {
+            tasks[ii] = new Adder(ii);
+            tasks[ii].setScheduler(s);
+            tasks[ii].informOnExit(exit);
+            tasks[ii].start();
+            hib.add(tasks[ii]);
+        }
+        assertTrue(s.awaitIdle(5000));
+        // the first sweep only records the tasks
+        assertEquals(0,hib.sweep());
+        assertEquals(num,hib.sweep());
+        assertEquals(num,hib.hibernated());
+        assertTrue(hib.bytes() > 0);
+        assertEquals(0,hib.sweep());
+
+        for (int round=0; round < 3; round++) {
+            for (Adder task : tasks)
+                task.mb.putb(round + 1);
+            assertTrue(s.awaitIdle(5000));
+            hib.sweep();
+            hib.sweep();
+        }
+        for (Adder task : tasks)
+            task.mb.putb(0);
+        for (int ii=0; ii < num; ii++) {
+            ExitMsg msg = exit.getb(5000);
+            assertNotNull(msg);
+            Adder task = (Adder) msg.task;
+            assertEquals(task.base + 6 + 3*100L,msg.result);
+        }
+        assertTrue(hib.thawed() >= num);
+        assertEquals(0,hib.bytes());
+        assertEquals(0,hib.sweep());
+        hib.close();
+        s.shutdown();
+    }
+
+    static class Adder extends Task {
+        Mailbox<Integer> mb = new Mailbox<>();
+        long base;
+        Adder(long base) { this.base = base; }
+
+        public void execute() throws Pausable {
+            long sum = base;
+            String pad = "x";
+            for (int val; (val = next(pad,100)) != 100; )
+                sum += val;
+            Task.exit(sum);
+        }
+
+        /** the value received plus the pad's length, with a long and a string live across the pause */
+        int next(String pad,long extra) throws Pausable {
+            int val = mb.get();
+            return val==0 ? 100 : val + (int) extra + pad.length() - 1;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.test;
+
+import java.io.IOException;
+import junit.framework.TestCase;
+import kilim.Invoker;
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.Task;
+
+import static kilim.test.TestScheduler.runAll;
+
+public class TestInvoker extends TestCase {
+
+    /** instance, static and void methods called through invokers, each pausing before it returns */
+    public void testInvoke() throws Exception {
+        Scheduler s = new Scheduler(1);
+        Caller task = new Caller();
+        runAll(s,task);
+        assertNull(task.failure,task.failure);
+        s.shutdown();
+    }
+
+    public void testCached() throws Exception {
+        Invoker inv = Invoker.of(Caller.class,"add",int.class,long.class);
+        assertSame(inv,Invoker.of(Caller.class.getDeclaredMethod("add",int.class,long.class)));
+        assertEquals(2,inv.numArgs());
+    }
+
+    public void testNotPausable() throws Exception {
+        try {
+            Invoker.of(Object.class,"toString");
+            fail("no exception");
+        }
+        catch (IllegalArgumentException ex) {}
+    }
+
+    static class Caller extends Task {
+        String failure;
+        int count;
+
+        long add(int a,long b) throws Pausable {
+            Task.yield();
+            return a + b;
+        }
+
+        static String concat(String a,String b) throws Pausable {
+            Task.yield();
+            return a + b;
+        }
+
+        void bump() throws Pausable {
+            Task.yield();
+            count++;
+        }
+
+        void fail(String msg) throws Pausable, IOException {
+            Task.yield();
+            throw new IOException(msg);
+        }
+
+        public void execute() throws Pausable, Exception {
+            Invoker add = Invoker.of(Caller.class,"add",int.class,long.class);
+            Invoker concat = Invoker.of(Caller.class,"concat",String.class,String.class);
+            Invoker bump = Invoker.of(Caller.class,"bump");
+            Invoker fail = Invoker.of(Caller.class,"fail",String.class);
+            long sum = 0;
+            for (int ii=0; ii < 10; ii++)
+                sum += (Long) add.invoke(this,ii,100L);
+            if (sum != 1045)
+                failure = "sum: " + sum;
+            Object str = concat.invoke(null,"ab","cd");
+            if (!"abcd".equals(str))
+                failure = "concat: " + str;
+            for (int ii=0; ii < 3; ii++)
+                if (bump.invoke(this) != null)
+                    failure = "void returned a value";
+            if (count != 3)
+                failure = "count: " + count;
+            try {
+                fail.invoke(this,"expected");
+                failure = "no exception";
+            }
+            catch (IOException ex) {
+                if (!"expected".equals(ex.getMessage()))
+                    failure = "exception: " + ex;
+            }
+        }
+    }
+}
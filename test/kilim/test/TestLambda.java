@@ -104,5 +104,57 @@ public class TestLambda extends TestCase {
     static interface Lambda<T> {
         T process(String input) throws Pausable;
     }
+
+    /**
+     * a pipeline of pausable lambdas held in a field, called with long and double args and with values
+     * under the call on the operand stack, and a stage that calls another stage
+     */
+    public void testPipeline() throws Exception {
+        ExitMsg e = new PipeTask(7).start().joinb();
+        assertEquals(Long.valueOf(PipeTask.expected(7)),e.result);
+    }
+
+    static interface Stage {
+        long apply(long val,double scale) throws Pausable;
+    }
+
+    static class PipeTask extends kilim.Task implements Stage {
+        Stage [] stages;
+        Stage inner;
+        int num;
+
+        PipeTask(int num) {
+            this.num = num;
+            inner = (val,scale) -> { Task.yield(); return val + 1; };
+            stages = new Stage[] {
+                (val,scale) -> { Task.yield(); return val * (long) scale; },
+                (val,scale) -> 3 + inner.apply(val,scale),
+                this
+            };
+        }
+
+        public long apply(long val,double scale) throws Pausable {
+            Task.yield();
+            return val - 2;
+        }
+
+        static long expected(int num) {
+            long sum = 0;
+            for (long ii=0; ii < num; ii++)
+                sum += 10 + ((ii*2 + 1) + 3 - 2);
+            return sum;
+        }
+
+        public void execute() throws Pausable {
+            long sum = 0;
+            for (long ii=0; ii < num; ii++) {
+                long val = ii;
+                for (int jj=0; jj < stages.length; jj++)
+                    val = stages[jj].apply(val,2.0);
+                sum += 10 + val;
+            }
+            Task.exit(sum);
+        }
+    }
 }
 
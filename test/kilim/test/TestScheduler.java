@@ -0,0 +1,1002 @@
+// copyright 2026 nqzero - offered under the terms of the MIT License
+
+package kilim.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import junit.framework.TestCase;
+import kilim.Affinity;
+import kilim.Dispatch;
+import kilim.ExitMsg;
+import kilim.FairQueue;
+import kilim.Group;
+import kilim.Mailbox;
+import kilim.MailboxSPSC;
+import kilim.Overflow;
+import kilim.Pausable;
+import kilim.Scheduler;
+import kilim.ShardedScheduler;
+import kilim.SliceStats;
+import kilim.StealingScheduler;
+import kilim.Task;
+import kilim.TaskPool;
+import kilim.VirtualScheduler;
+
+public class TestScheduler extends TestCase {
+
+    /** start the tasks on the scheduler and wait for all of them to exit, failing on error or timeout */
+    static void runAll(Scheduler s,Task ... tasks) {
+        Mailbox<ExitMsg> exitmb = new Mailbox<ExitMsg>();
+        for (Task t : tasks) {
+            t.informOnExit(exitmb);
+            t.setScheduler(s);
+            t.start();
+        }
+        for (int ii=0; ii < tasks.length; ii++) {
+            ExitMsg em = exitmb.getb(10000);
+            assertNotNull("Timed out. #tasks finished = " + ii + "/" + tasks.length, em);
+            assertFalse("task failed: " + em.result, em.result instanceof Throwable);
+            assertFalse("task failed: " + em.result, em.result instanceof Integer && (Integer) em.result != 0);
+        }
+    }
+
+    /** start the tasks as a batch and wait for them, see runAll */
+    static void startAll(Scheduler s,Task ... tasks) {
+        Mailbox<ExitMsg> exitmb = new Mailbox<ExitMsg>();
+        for (Task t : tasks) {
+            t.informOnExit(exitmb);
+            t.setScheduler(s);
+        }
+        Task.startAll(tasks);
+        // already running or done, so a second batch is a no-op
+        Task.startAll(tasks);
+        for (int ii=0; ii < tasks.length; ii++) {
+            ExitMsg em = exitmb.getb(10000);
+            assertNotNull("Timed out. #tasks finished = " + ii + "/" + tasks.length, em);
+            assertFalse("task failed: " + em.result, em.result instanceof Throwable);
+        }
+        assertNull(exitmb.getb(100));
+        s.idledown();
+        assertTrue(s.isShutdown());
+    }
+
+    public void testStartAll() {
+        for (Scheduler s : new Scheduler[] {
+                new Scheduler(4), new Scheduler(4,4096,true), new StealingScheduler(4), new StealingScheduler(1,4),
+                new ShardedScheduler(4,16) }) {
+            Task [] tasks = new Task[2000];
+            for (int ii=0; ii < tasks.length; ii++)
+                tasks[ii] = ii%10==0 ? new PinnedTask()
+                        : ii%10==1 ? new YieldTask().setAffinity(ii%7)
+                        : ii%10==2 ? new SleepTask(new Mailbox<Integer>(),1)
+                        : new YieldTask();
+            startAll(s,tasks);
+        }
+    }
+
+    static class YieldTask extends Task {
+        public void execute() throws Pausable {
+            for (int ii=0; ii < 3; ii++)
+                Task.yield();
+        }
+    }
+
+    static Task [] ring(int num,int times) {
+        Task [] tasks = new Task[num];
+        Mailbox<Integer> first = new Mailbox<Integer>(), mb = first;
+        for (int ii=0; ii < num; ii++) {
+            Mailbox<Integer> next = ii==num-1 ? first : new Mailbox<Integer>();
+            tasks[ii] = new RingTask(mb,next,times,ii==0);
+            mb = next;
+        }
+        return tasks;
+    }
+
+    public void testStealingRing() {
+        Scheduler s = new StealingScheduler(4);
+        runAll(s,ring(50,1000));
+        s.shutdown();
+    }
+
+    public void testStealingPinned() {
+        Scheduler s = new StealingScheduler(4);
+        Task [] tasks = new Task[100];
+        for (int ii=0; ii < tasks.length; ii++)
+            tasks[ii] = new PinnedTask();
+        runAll(s,tasks);
+        s.shutdown();
+    }
+
+    public void testStealingIdledown() {
+        Scheduler s = new StealingScheduler(2);
+        runAll(s,ring(10,100));
+        s.idledown();
+        assertTrue(s.isShutdown());
+    }
+
+    public void testElastic() throws Exception {
+        StealingScheduler s = new StealingScheduler(1,4);
+        s.setElastic(2,20);
+        assertEquals(1,s.activeThreads());
+        Task [] tasks = new Task[120];
+        for (int ii=0; ii < tasks.length; ii++)
+            tasks[ii] = ii%6==0 ? new PinnedSleepTask() : new SpinTask();
+        runAll(s,tasks);
+        assertTrue("grew: " + SpinTask.grew,SpinTask.grew > 1);
+        // the pinned tasks kept their workers alive while they slept, now every worker but the first can retire
+        long end = System.currentTimeMillis() + 5000;
+        while (s.activeThreads() > 1 && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        assertEquals(1,s.activeThreads());
+        runAll(s,ring(20,100));
+        s.idledown();
+        assertTrue(s.isShutdown());
+    }
+
+    static class SpinTask extends Task {
+        static volatile int grew;
+        public void execute() throws Pausable {
+            for (int ii=0; ii < 10; ii++) {
+                long end = System.nanoTime() + 200000;
+                while (System.nanoTime() < end) {}
+                int num = ((StealingScheduler) getScheduler()).activeThreads();
+                if (num > grew) grew = num;
+                Task.yield();
+            }
+        }
+    }
+
+    /** pin, sleep for longer than the keepAlive and exit with the number of times the thread changed */
+    static class PinnedSleepTask extends Task {
+        public void execute() throws Pausable {
+            Mailbox<Integer> mb = new Mailbox<Integer>();
+            Thread thread = Thread.currentThread();
+            int moved = 0;
+            pinToThread();
+            for (int ii=0; ii < 3; ii++) {
+                mb.get(100);
+                if (Thread.currentThread() != thread)
+                    moved++;
+            }
+            unpinFromThread();
+            Task.exit(moved);
+        }
+    }
+
+    /** only runs on java 21+, ie not under the java 8 ant build */
+    public void testVirtual() {
+        if (!VirtualScheduler.isSupported()) return;
+        Scheduler s = new VirtualScheduler();
+        runAll(s,ring(50,1000));
+        Task [] tasks = new Task[100];
+        for (int ii=0; ii < tasks.length; ii++)
+            tasks[ii] = ii%2==0 ? new PinnedTask() : new PinnedSleepTask();
+        runAll(s,tasks);
+        checkAwaitIdle(s);
+    }
+
+    public void testSharded() {
+        Scheduler s = new ShardedScheduler(4,16);
+        runAll(s,ring(50,1000));
+        // pairs on different shards, with rings small enough to overflow into the inbox
+        Task [] tasks = new Task[40];
+        for (int ii=0; ii < tasks.length; ii += 2) {
+            MailboxSPSC<Integer> mb = new MailboxSPSC<Integer>(4);
+            tasks[ii] = new StayTask(mb,null,500);
+            tasks[ii+1] = new StayTask(null,mb,500);
+        }
+        runAll(s,tasks);
+        checkAwaitIdle(s);
+    }
+
+    /** the schedulers that don't share by weight still charge the slices of grouped tasks to the group */
+    public void testGroupCharged() {
+        List<Scheduler> list = new ArrayList<Scheduler>();
+        list.add(new StealingScheduler(2));
+        list.add(new ShardedScheduler(2));
+        if (VirtualScheduler.isSupported())
+            list.add(new VirtualScheduler());
+        for (Scheduler s : list) {
+            Group group = new Group("charged",1);
+            Task [] tasks = new Task[4];
+            for (int ii=0; ii < tasks.length; ii++)
+                tasks[ii] = new YieldTask().setGroup(group);
+            runAll(s,tasks);
+            // the slice is charged after the exit message is sent
+            assertTrue(s.awaitIdle(5000));
+            // each task runs a slice per yield plus the last
+            assertEquals(s.getClass().getName(),16,group.slices());
+            assertTrue(group.runNanos() > 0);
+            s.idledown();
+        }
+    }
+
+    /** idle shards with pending timers share one proxy thread, ie the scheduler adds at most one thread per shard */
+    public void testShardedTimerThreads() {
+        int before = Thread.activeCount(), num = 4;
+        Scheduler s = new ShardedScheduler(num);
+        Task [] tasks = new Task[8*num];
+        for (int ii=0; ii < tasks.length; ii++)
+            tasks[ii] = new SleepTask(new Mailbox<Integer>(),20);
+        runAll(s,tasks);
+        int added = Thread.activeCount() - before;
+        assertTrue("added: " + added,added <= num+1);
+        s.idledown();
+    }
+
+    /** move a sequence through a mailbox and exit with the number of times the thread changed or a gap */
+    static class StayTask extends Task {
+        MailboxSPSC<Integer> src, dst;
+        int times;
+        StayTask(MailboxSPSC<Integer> src,MailboxSPSC<Integer> dst,int times) {
+            this.src = src;
+            this.dst = dst;
+            this.times = times;
+        }
+        public void execute() throws Pausable {
+            Thread thread = Thread.currentThread();
+            int moved = 0;
+            for (int ii=0; ii < times; ii++) {
+                if (dst != null)
+                    dst.put(ii);
+                else if (src.get() != ii)
+                    moved++;
+                if (Thread.currentThread() != thread)
+                    moved++;
+            }
+            Task.exit(moved);
+        }
+    }
+
+    public void testAffinity() {
+        checkAffinity(new Scheduler(4));
+        checkAffinity(new StealingScheduler(4));
+        checkAffinity(new ShardedScheduler(4));
+    }
+
+    /**
+     * tasks sharing a key update unsynchronized state while the key's bucket is moved between workers,
+     * which is only safe if they never run concurrently
+     */
+    static void checkAffinity(Scheduler s) {
+        Affinity map = s.getAffinity();
+        int num = 40, times = 200;
+        Shard [] shards = new Shard[4];
+        for (int ii=0; ii < shards.length; ii++)
+            shards[ii] = new Shard();
+        Task [] tasks = new Task[num];
+        for (int ii=0; ii < num; ii++) {
+            Shard shard = shards[ii % shards.length];
+            tasks[ii] = new ShardTask(shard,times).setAffinity(shard);
+        }
+        Mover mover = new Mover(map,shards);
+        mover.start();
+        runAll(s,tasks);
+        mover.stop = true;
+        for (Shard shard : shards) {
+            assertEquals(num/shards.length*times,shard.count);
+            assertFalse(shard.overlap);
+        }
+        // once quiet, a move takes effect immediately and the next slice runs on the new owner
+        int bucket = map.bucket(shards[0]), owner = map.owner(bucket), target = (owner+1) % map.workers();
+        map.move(bucket,target);
+        assertEquals(target,map.owner(bucket));
+        s.shutdown();
+    }
+
+    static class Shard {
+        int count;
+        boolean busy, overlap;
+    }
+
+    static class ShardTask extends Task {
+        Shard shard;
+        int times;
+        ShardTask(Shard shard,int times) { this.shard = shard; this.times = times; }
+        public void execute() throws Pausable {
+            for (int ii=0; ii < times; ii++) {
+                if (shard.busy) shard.overlap = true;
+                shard.busy = true;
+                int count = shard.count;
+                Thread.yield();
+                shard.count = count+1;
+                shard.busy = false;
+                Task.yield();
+            }
+        }
+    }
+
+    /** keep moving the shards' buckets around */
+    static class Mover extends Thread {
+        Affinity map;
+        Shard [] shards;
+        volatile boolean stop;
+        Mover(Affinity map,Shard [] shards) { this.map = map; this.shards = shards; setDaemon(true); }
+        public void run() {
+            for (int ii=0; !stop; ii++) {
+                int bucket = map.bucket(shards[ii % shards.length]);
+                map.move(bucket,(map.owner(bucket)+1) % map.workers());
+                Thread.yield();
+            }
+        }
+    }
+
+    public void testRebalance() {
+        Scheduler s = new Scheduler(2);
+        Affinity map = s.getAffinity();
+        // small integers hash to their own bucket, and buckets alternate between the 2 workers
+        ArrayList<Task> tasks = new ArrayList<Task>();
+        for (int ii=0; ii < 60; ii++) tasks.add(new ShardTask(new Shard(),1).setAffinity(0));
+        for (int ii=0; ii < 30; ii++) tasks.add(new ShardTask(new Shard(),1).setAffinity(2));
+        for (int ii=0; ii < 10; ii++) tasks.add(new ShardTask(new Shard(),1).setAffinity(1));
+        runAll(s,tasks.toArray(new Task[0]));
+        assertTrue(s.awaitIdle(10000));
+        // each task yields once, so it is routed twice
+        assertEquals(120,map.hits(0));
+        // worker 0 has 180 hits and worker 1 has 20, so the busiest bucket that fits in the gap moves
+        s.rebalance();
+        assertEquals(0,map.owner(0));
+        assertEquals(1,map.owner(2));
+        assertEquals(0,map.hits(0));
+        s.shutdown();
+    }
+
+    public void testAwaitIdle() {
+        checkAwaitIdle(new Scheduler(2));
+        checkAwaitIdle(new StealingScheduler(2));
+    }
+
+    static void checkAwaitIdle(Scheduler s) {
+        Mailbox<Integer> mb = new Mailbox<Integer>();
+        Task sleeper = new SleepTask(mb,200);
+        sleeper.setScheduler(s);
+        sleeper.start();
+        long start = System.currentTimeMillis();
+        assertFalse(s.awaitIdle(20));
+        // the timer is still pending so the scheduler must not be idle until the task wakes and exits
+        assertTrue(s.awaitIdle(10000));
+        long delay = System.currentTimeMillis() - start;
+        assertTrue(sleeper.isDone());
+        assertTrue("delay: " + delay,delay >= 190 && delay < 290);
+        s.idledown();
+        assertTrue(s.isShutdown());
+    }
+
+    static class SleepTask extends Task {
+        Mailbox<Integer> mb;
+        long delay;
+        SleepTask(Mailbox<Integer> mb,long delay) { this.mb = mb; this.delay = delay; }
+        public void execute() throws Pausable {
+            mb.get(delay);
+        }
+    }
+
+    public void testSaturateRing() {
+        Scheduler s = new Scheduler(4);
+        s.setDispatch(new Dispatch.Saturate());
+        runAll(s,ring(50,1000));
+        s.shutdown();
+
+        s = new StealingScheduler(4);
+        s.setDispatch(new Dispatch.Saturate());
+        runAll(s,ring(50,1000));
+        s.shutdown();
+    }
+
+    static class Load implements Dispatch.Workers {
+        int [] pending;
+        long [] started;
+        Load(int ... pending) { this.pending = pending; started = new long[pending.length]; }
+        public int size() { return pending.length; }
+        public int pending(int index) { return pending[index]; }
+        public long started(int index) { return started[index]; }
+    }
+
+    public void testSaturateSelect() {
+        Dispatch.Saturate dispatch = new Dispatch.Saturate(4,1000000000L);
+        assertEquals(0,dispatch.select(new Load(0,0,0)));
+        assertEquals(1,dispatch.select(new Load(0,2,0)));
+        assertEquals(2,dispatch.select(new Load(4,4,1)));
+        assertEquals(1,dispatch.select(new Load(4,0,0)));
+        assertEquals(1,dispatch.select(new Load(9,5,6)));
+        assertFalse(dispatch.spill(new Load(3),0));
+        assertTrue(dispatch.spill(new Load(4),0));
+
+        Load busy = new Load(1,1);
+        busy.started[0] = System.nanoTime()-2000000000L;
+        assertEquals(1,dispatch.select(busy));
+        assertTrue(dispatch.spill(busy,0));
+    }
+
+    /** queue tasks behind a blocked worker and check the order in which the levels are served */
+    public void testPriority() throws Exception {
+        Scheduler s = new Scheduler(1,1000,3);
+        CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+        Task blocker = new BlockTask(running,release);
+        blocker.setScheduler(s);
+        blocker.start();
+        running.await();
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        Task [] tasks = new Task[16];
+        tasks[0] = new OrderTask(order,0).setPriority(0);
+        for (int ii=1; ii < 13; ii++)
+            tasks[ii] = new OrderTask(order,ii).setPriority(2);
+        for (int ii=13; ii < 16; ii++)
+            tasks[ii] = new OrderTask(order,ii).setPriority(1);
+        for (Task task : tasks) {
+            task.setScheduler(s);
+            task.start();
+        }
+        release.countDown();
+        runAll(s);
+        assertTrue(s.awaitIdle(10000));
+        // the lower levels age while the high level is served, and once aged the higher of them goes first
+        List<Integer> expected = new ArrayList<Integer>();
+        int aging = Scheduler.defaultAging;
+        for (int ii=1; ii <= aging; ii++) expected.add(ii);
+        expected.add(13);
+        expected.add(0);
+        for (int ii=aging+1; ii < 13; ii++) expected.add(ii);
+        expected.add(14);
+        expected.add(15);
+        assertEquals(expected,order);
+        s.shutdown();
+    }
+
+    /** flood a blocked worker from two groups and check that the backlog is served in proportion to weight */
+    public void testFairShare() throws Exception {
+        Scheduler s = new Scheduler(1,10000,true);
+        CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+        Task blocker = new BlockTask(running,release);
+        blocker.setScheduler(s);
+        blocker.start();
+        running.await();
+
+        Group light = new Group("light",1), heavy = new Group("heavy",3);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        int num = 200;
+        for (int ii=0; ii < 2*num; ii++) {
+            // the light group floods first, which a fifo queue would serve first
+            Task task = new SpinOrderTask(order,ii < num ? 0:1).setGroup(ii < num ? light:heavy);
+            task.setScheduler(s);
+            task.start();
+        }
+        release.countDown();
+        assertTrue(s.awaitIdle(10000));
+        assertEquals(2*num,order.size());
+        int heavies = 0;
+        for (int ii=0; ii < num; ii++)
+            heavies += order.get(ii);
+        // while both groups are backlogged the heavy group should get about 3/4 of the worker
+        assertTrue("heavy: " + heavies,heavies > 120 && heavies < 180);
+        assertEquals(num,light.slices());
+        assertEquals(num,heavy.slices());
+        assertTrue(light.runNanos() >= num*50000L);
+        s.shutdown();
+    }
+
+    /** a pair of tasks that wake each other shouldn't take turns out of their group's share via the run-next slot */
+    public void testFairRunNext() throws Exception {
+        Scheduler s = new Scheduler(1,10000,true);
+        s.setRunNext(true);
+        Group chatty = new Group("chatty",1), other = new Group("other",1);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        Mailbox<Integer> pingmb = new Mailbox<Integer>(), pongmb = new Mailbox<Integer>();
+        int times = 100, num = 40;
+        Task pong = new SpinPongTask(pongmb,pingmb,order,times,false).setGroup(chatty);
+        pong.setScheduler(s);
+        pong.start();
+        CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+        Task blocker = new BlockTask(running,release);
+        blocker.setScheduler(s);
+        blocker.start();
+        running.await();
+
+        Task ping = new SpinPongTask(pingmb,pongmb,order,times,true).setGroup(chatty);
+        ping.setScheduler(s);
+        ping.start();
+        for (int ii=0; ii < num; ii++) {
+            Task task = new SpinOrderTask(order,1).setGroup(other);
+            task.setScheduler(s);
+            task.start();
+        }
+        release.countDown();
+        assertTrue(s.awaitIdle(10000));
+        assertEquals(2*times + num,order.size());
+        // while the other group is backlogged, equal weights alternate a couple of slices at a time.
+        // served from the slot, the pair would run runNextLimit slices in a row
+        int last = order.lastIndexOf(1), run = 0, longest = 0;
+        for (int ii=0; ii < last; ii++) {
+            run = order.get(ii)==0 ? run+1 : 0;
+            longest = Math.max(longest,run);
+        }
+        assertTrue("longest: " + longest,longest < 10);
+        s.shutdown();
+    }
+
+    static class SpinPongTask extends Task {
+        Mailbox<Integer> mb, other;
+        List<Integer> order;
+        int times;
+        boolean first;
+        SpinPongTask(Mailbox<Integer> mb,Mailbox<Integer> other,List<Integer> order,int times,boolean first) {
+            this.mb = mb;
+            this.other = other;
+            this.order = order;
+            this.times = times;
+            this.first = first;
+        }
+        public void execute() throws Pausable {
+            for (int ii=0; ii < times; ii++) {
+                if (!first) mb.get();
+                long end = System.nanoTime() + 50000;
+                while (System.nanoTime() < end) {}
+                order.add(0);
+                other.put(ii);
+                if (first) mb.get();
+            }
+        }
+    }
+
+    /** a group per task, eg per connection, shouldn't leave a lane behind once its tasks have run */
+    public void testFairLanes() throws Exception {
+        FairQueue queue = new FairQueue(1000,Scheduler.defaultQuantum);
+        Scheduler s = new Scheduler(1,index -> queue);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        int num = 200;
+        for (int ii=0; ii < num; ii++) {
+            Task task = new OrderTask(order,ii).setGroup(new Group("conn" + ii,1));
+            task.setScheduler(s);
+            task.start();
+        }
+        assertTrue(s.awaitIdle(10000));
+        assertEquals(num,order.size());
+        // lanes are retired as the worker passes them, which only happens while it has slices to serve
+        for (int ii=0; ii < 3; ii++) {
+            Task task = new OrderTask(order,-1);
+            task.setScheduler(s);
+            task.start().joinb();
+        }
+        assertEquals(1,queue.lanes());
+        s.shutdown();
+    }
+
+    static class SpinOrderTask extends OrderTask {
+        SpinOrderTask(List<Integer> order,int index) { super(order,index); }
+        public void execute() throws Pausable {
+            long end = System.nanoTime() + 50000;
+            while (System.nanoTime() < end) {}
+            order.add(index);
+        }
+    }
+
+    public void testOverflow() throws Exception {
+        Overflow spill = checkOverflow(new Scheduler(1,16),new Overflow(Overflow.Policy.SPILL),null);
+        assertTrue(spill.toString(),spill.spilled() > 0 && spill.peakSpill() > 0);
+        // everything is dispatched to the blocked worker, so the other one has room
+        Scheduler pair = new Scheduler(2,16);
+        pair.setDispatch(new First());
+        Overflow redirect = checkOverflow(pair,new Overflow(Overflow.Policy.REDIRECT),null);
+        assertTrue(redirect.toString(),redirect.redirected() >= 16);
+        Overflow inline = checkOverflow(new Scheduler(1,16),new Overflow(Overflow.Policy.INLINE),null);
+        assertTrue(inline.toString(),inline.inlined() > 0);
+        List<Task> rejects = Collections.synchronizedList(new ArrayList<Task>());
+        Overflow reject = checkOverflow(new Scheduler(1,16),new Overflow(Overflow.Policy.REJECT,rejects::add),rejects);
+        assertTrue(reject.toString(),reject.rejected() > 0);
+    }
+
+    /** without a rejector, REJECT throws at the caller and leaves the task free to be resumed again */
+    public void testOverflowRejectDefault() throws Exception {
+        Scheduler s = new Scheduler(1,16);
+        Overflow reject = new Overflow(Overflow.Policy.REJECT);
+        s.setOverflow(reject);
+        CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+        Task blocker = new BlockTask(running,release);
+        blocker.setScheduler(s);
+        blocker.start();
+        running.await();
+        Mailbox<ExitMsg> exitmb = new Mailbox<ExitMsg>();
+        List<Task> rejects = new ArrayList<Task>();
+        int num = 200;
+        for (int ii=0; ii < num; ii++) {
+            Task task = new NopTask();
+            task.informOnExit(exitmb);
+            task.setScheduler(s);
+            try { task.start(); }
+            catch (RejectedExecutionException ex) { rejects.add(task); }
+        }
+        assertFalse(rejects.isEmpty());
+        assertEquals(rejects.size(),reject.rejected());
+        release.countDown();
+        assertTrue(s.awaitIdle(10000));
+        // the queue can fill again, and each rejection releases the task again
+        for (Task task : rejects)
+            while (true) {
+                try {
+                    assertTrue(task.resume());
+                    break;
+                }
+                catch (RejectedExecutionException ex) { assertTrue(s.awaitIdle(10000)); }
+            }
+        for (int ii=0; ii < num; ii++)
+            assertNotNull(exitmb.getb(10000));
+        s.idledown();
+    }
+
+    /** an inlined slice is charged to its group and timed like one run by the worker */
+    public void testInlineAccounting() throws Exception {
+        Scheduler s = new Scheduler(1,16);
+        Overflow inline = new Overflow(Overflow.Policy.INLINE);
+        s.setOverflow(inline);
+        SliceStats stats = new SliceStats();
+        s.setSliceStats(stats);
+        Group group = new Group("inline",1);
+        CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+        Task blocker = new BlockTask(running,release);
+        blocker.setScheduler(s);
+        blocker.start();
+        running.await();
+        Mailbox<ExitMsg> exitmb = new Mailbox<ExitMsg>();
+        int num = 200;
+        for (int ii=0; ii < num; ii++) {
+            Task task = new NopTask().setGroup(group);
+            task.informOnExit(exitmb);
+            task.setScheduler(s);
+            task.start();
+        }
+        release.countDown();
+        for (int ii=0; ii < num; ii++)
+            assertNotNull(exitmb.getb(10000));
+        assertTrue(s.awaitIdle(10000));
+        assertTrue(inline.toString(),inline.inlined() > 0);
+        assertEquals(num,group.slices());
+        assertEquals(num,stats.histogram(NopTask.class).count());
+        s.shutdown();
+    }
+
+    static class First implements Dispatch {
+        public int select(Workers pool) { return 0; }
+        public boolean spill(Workers pool,int index) { return true; }
+    }
+
+    /**
+     * flood a blocked worker, then release it (and reschedule any rejected tasks) and wait for every task
+     * @return the policy, for its counters
+     */
+    static Overflow checkOverflow(Scheduler s,Overflow policy,List<Task> rejects) throws Exception {
+        s.setOverflow(policy);
+        CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+        Task blocker = new BlockTask(running,release);
+        blocker.setScheduler(s);
+        blocker.start();
+        running.await();
+        Mailbox<ExitMsg> exitmb = new Mailbox<ExitMsg>();
+        int num = 200;
+        for (int ii=0; ii < num; ii++) {
+            Task task = new NopTask();
+            task.informOnExit(exitmb);
+            task.setScheduler(s);
+            task.start();
+        }
+        release.countDown();
+        // a rescheduled task can be rejected again while the worker catches up
+        while (rejects != null && !rejects.isEmpty()) {
+            Task [] batch = rejects.toArray(new Task[0]);
+            rejects.clear();
+            for (Task task : batch)
+                s.schedule(task);
+            Thread.sleep(1);
+        }
+        for (int ii=0; ii < num; ii++)
+            assertNotNull("Timed out. #tasks finished = " + ii + "/" + num + ", " + policy,exitmb.getb(10000));
+        s.idledown();
+        return policy;
+    }
+
+    public void testSliceStats() throws Exception {
+        Scheduler s = new Scheduler(1);
+        List<SliceStats.Overrun> overruns = Collections.synchronizedList(new ArrayList<SliceStats.Overrun>());
+        SliceStats stats = new SliceStats(20,overruns::add);
+        s.setSliceStats(stats);
+        CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+        Task blocker = new BlockTask(running,release);
+        blocker.setScheduler(s);
+        blocker.start();
+        running.await();
+        for (int ii=0; ii < 200 && overruns.isEmpty(); ii++)
+            Thread.sleep(10);
+        release.countDown();
+        blocker.joinb();
+        assertEquals(1,overruns.size());
+        SliceStats.Overrun overrun = overruns.get(0);
+        assertSame(blocker,overrun.task);
+        assertTrue(overrun.toString(),overrun.toString().contains(BlockTask.class.getName()));
+
+        runYields(s,4);
+        SliceStats.Histogram hist = stats.histogram(YieldTask.class);
+        // each task runs a slice per yield plus the last
+        assertEquals(16,hist.count());
+        assertTrue(stats.toString(),stats.histogram(BlockTask.class).max() >= 20000000);
+
+        s.setSliceStats(null);
+        runYields(s,4);
+        assertEquals(16,hist.count());
+        stats.close();
+        s.idledown();
+    }
+
+    public void testSliceStatsWorkers() throws Exception {
+        for (Scheduler s : new Scheduler [] { new StealingScheduler(2), new ShardedScheduler(2) }) {
+            List<SliceStats.Overrun> overruns = Collections.synchronizedList(new ArrayList<SliceStats.Overrun>());
+            SliceStats stats = new SliceStats(20,overruns::add);
+            s.setSliceStats(stats);
+            assertSame(stats,s.getSliceStats());
+            CountDownLatch running = new CountDownLatch(1), release = new CountDownLatch(1);
+            Task blocker = new BlockTask(running,release);
+            blocker.setScheduler(s);
+            blocker.start();
+            running.await();
+            for (int ii=0; ii < 200 && overruns.isEmpty(); ii++)
+                Thread.sleep(10);
+            release.countDown();
+            blocker.joinb();
+            assertEquals(s.getClass().getName(),1,overruns.size());
+            assertSame(blocker,overruns.get(0).task);
+
+            runYields(s,4);
+            assertEquals(s.getClass().getName(),16,stats.histogram(YieldTask.class).count());
+            s.setSliceStats(null);
+            runYields(s,4);
+            assertEquals(16,stats.histogram(YieldTask.class).count());
+            stats.close();
+            s.idledown();
+        }
+        if (VirtualScheduler.isSupported()) {
+            Scheduler s = new VirtualScheduler();
+            try {
+                s.setSliceStats(new SliceStats());
+                fail();
+            }
+            catch (UnsupportedOperationException ex) {}
+            assertNull(s.getSliceStats());
+            s.shutdown();
+        }
+    }
+
+    static void runYields(Scheduler s,int num) {
+        Task [] tasks = new Task[num];
+        for (int ii=0; ii < num; ii++) {
+            tasks[ii] = new YieldTask();
+            tasks[ii].setScheduler(s);
+            tasks[ii].start();
+        }
+        for (Task task : tasks)
+            task.joinb();
+        // the slice is recorded after the exit message is sent
+        assertTrue(s.awaitIdle(5000));
+    }
+
+    public void testTaskPool() throws Exception {
+        Scheduler s = new Scheduler(1);
+        // no thread-local cache, so the tasks that exit on the worker are reused by this thread
+        TaskPool<PoolTask> pool = new TaskPool<>(PoolTask::new,4,0);
+        Mailbox<Integer> out = new Mailbox<>();
+        PoolTask first = null;
+        for (int ii=0; ii < 100; ii++) {
+            PoolTask task = pool.get();
+            if (first==null) first = task;
+            assertSame(first,task);
+            task.value = ii;
+            task.out = out;
+            task.setScheduler(s);
+            task.start();
+            assertEquals(ii,(int) out.getb(5000));
+            assertTrue(s.awaitIdle(5000));
+            // idle in the pool, so a stale resume is ignored
+            assertFalse(task.resume());
+            assertNull(task.out);
+        }
+        assertEquals(1,pool.created());
+        assertEquals(99,pool.reused());
+
+        // tasks spawned by a task are reused from the worker's cache
+        TaskPool<PoolTask> local = new TaskPool<>(PoolTask::new,1,2);
+        Task parent = new PoolParent(local);
+        parent.setScheduler(s);
+        parent.start();
+        parent.joinb();
+        assertEquals(1,local.created());
+        s.idledown();
+    }
+
+    /** a pooled task's last slice is charged to its group before the task goes back to the pool */
+    public void testTaskPoolGroup() throws Exception {
+        Scheduler s = new Scheduler(1);
+        s.setRunNext(true);
+        Group group = new Group("pooled",1);
+        int num = 200;
+        Task parent = new GroupPoolParent(new TaskPool<>(GroupPoolTask::new),group,num);
+        parent.setScheduler(s);
+        parent.start();
+        parent.joinb();
+        assertTrue(s.awaitIdle(5000));
+        assertEquals(num,group.slices());
+        s.idledown();
+    }
+
+    /** start each child from the pool and resume it, so that its slices run from the run-next slot */
+    static class GroupPoolParent extends Task {
+        TaskPool<GroupPoolTask> pool;
+        Group group;
+        int num;
+        GroupPoolParent(TaskPool<GroupPoolTask> pool,Group group,int num) {
+            this.pool = pool;
+            this.group = group;
+            this.num = num;
+        }
+        public void execute() throws Pausable {
+            Mailbox<Integer> in = new Mailbox<>(), out = new Mailbox<>();
+            for (int ii=0; ii < num; ii++) {
+                GroupPoolTask task = pool.get();
+                task.in = in;
+                task.out = out;
+                task.setGroup(group);
+                task.setScheduler(getScheduler());
+                task.start();
+                in.put(ii);
+                out.get();
+            }
+        }
+    }
+
+    static class GroupPoolTask extends Task {
+        Mailbox<Integer> in, out;
+        public void execute() throws Pausable {
+            out.putnb(in.get());
+        }
+        protected void recycle() {
+            in = out = null;
+        }
+    }
+
+    static class PoolParent extends Task {
+        TaskPool<PoolTask> pool;
+        PoolParent(TaskPool<PoolTask> pool) { this.pool = pool; }
+        public void execute() throws Pausable {
+            Mailbox<Integer> mb = new Mailbox<>();
+            for (int ii=0; ii < 100; ii++) {
+                PoolTask task = pool.get();
+                task.value = ii;
+                task.out = mb;
+                task.setScheduler(getScheduler());
+                task.start();
+                mb.get();
+                task.join();
+            }
+        }
+    }
+
+    static class PoolTask extends Task {
+        int value;
+        Mailbox<Integer> out;
+        public void execute() throws Pausable {
+            Task.yield();
+            out.putnb(value);
+        }
+        protected void recycle() {
+            out = null;
+        }
+    }
+
+    static class NopTask extends Task {
+        public void execute() throws Pausable {}
+    }
+
+    static class BlockTask extends Task {
+        CountDownLatch running, release;
+        BlockTask(CountDownLatch running,CountDownLatch release) { this.running = running; this.release = release; }
+        public void execute() throws Pausable, Exception {
+            running.countDown();
+            release.await();
+        }
+    }
+
+    static class OrderTask extends Task {
+        List<Integer> order;
+        int index;
+        OrderTask(List<Integer> order,int index) { this.order = order; this.index = index; }
+        public void execute() throws Pausable {
+            order.add(index);
+        }
+    }
+
+    public void testRunNext() {
+        Scheduler s = new Scheduler(4);
+        s.setRunNext(true);
+        runAll(s,ring(50,1000));
+        checkPingPong(s);
+        s.shutdown();
+
+        s = new StealingScheduler(4);
+        s.setRunNext(true);
+        runAll(s,ring(50,1000));
+        s.shutdown();
+    }
+
+    /** with a run-next slot, a pair of tasks that only talk to each other should converge on a single thread */
+    static void checkPingPong(Scheduler s) {
+        int times = 1000;
+        Mailbox<Thread> pingmb = new Mailbox<Thread>(), pongmb = new Mailbox<Thread>();
+        PongTask pong = new PongTask(pongmb,pingmb,times);
+        runAll(s,new PingTask(pingmb,pongmb,times),pong);
+        assertTrue("moved: " + pong.moved,pong.moved < 10);
+    }
+
+    static class PingTask extends Task {
+        Mailbox<Thread> mb, other;
+        int times;
+        PingTask(Mailbox<Thread> mb,Mailbox<Thread> other,int times) {
+            this.mb = mb;
+            this.other = other;
+            this.times = times;
+        }
+        public void execute() throws Pausable {
+            for (int ii=0; ii < times; ii++) {
+                other.put(Thread.currentThread());
+                mb.get();
+            }
+        }
+    }
+
+    static class PongTask extends PingTask {
+        int moved;
+        PongTask(Mailbox<Thread> mb,Mailbox<Thread> other,int times) { super(mb,other,times); }
+        public void execute() throws Pausable {
+            for (int ii=0; ii < times; ii++) {
+                if (mb.get() != Thread.currentThread())
+                    moved++;
+                other.put(Thread.currentThread());
+            }
+        }
+    }
+
+    static class RingTask extends Task {
+        Mailbox<Integer> mb, next;
+        int times;
+        boolean first;
+        RingTask(Mailbox<Integer> mb,Mailbox<Integer> next,int times,boolean first) {
+            this.mb = mb;
+            this.next = next;
+            this.times = times;
+            this.first = first;
+        }
+        public void execute() throws Pausable {
+            if (first)
+                next.put(0);
+            for (int ii=0; ii < times; ii++) {
+                int val = mb.get();
+                if (!first || ii < times-1)
+                    next.put(val+1);
+            }
+        }
+    }
+
+    static class PinnedTask extends Task {
+        public void execute() throws Pausable {
+            Thread thread = Thread.currentThread();
+            int moved = 0;
+            pinToThread();
+            for (int ii=0; ii < 1000; ii++) {
+                Task.yield();
+                if (Thread.currentThread() != thread)
+                    moved++;
+            }
+            unpinFromThread();
+            Task.exit(moved);
+        }
+    }
+}